@@ -1,10 +1,9 @@
 package com.softmotions.cayenne.server;
 
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.Method;
-import java.util.Date;
-import java.util.HashMap;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.cayenne.Cayenne;
@@ -14,10 +13,12 @@ import org.apache.cayenne.DataChannel;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.PersistenceState;
 import org.apache.cayenne.Persistent;
-import org.apache.cayenne.PersistentObject;
-import org.apache.commons.beanutils.BeanUtilsBean;
-import org.apache.commons.beanutils.PropertyUtilsBean;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.softmotions.cayenne.utils.JsonUtils;
 
@@ -27,6 +28,8 @@ import com.softmotions.cayenne.utils.JsonUtils;
 @SuppressWarnings({"ChainOfInstanceofChecks", "ObjectEquality"})
 public abstract class DataObject extends CayenneDataObject {
 
+    private static final ObjectMapper treeMapper = new ObjectMapper();
+
     public Long getId() {
         return (objectId != null ? Cayenne.longPKForObject(this) : null);
     }
@@ -83,9 +86,8 @@ public abstract class DataObject extends CayenneDataObject {
      */
     public void mergeAllPlain(Object src) throws Exception {
         if (src instanceof ObjectNode) {
-            src = JsonUtils.populateMapByJsonNode((ObjectNode) src, new HashMap<>());
-        }
-        if (src instanceof Map) {
+            copyNotNullJson((ObjectNode) src);
+        } else if (src instanceof Map) {
             //noinspection unchecked
             copyNotNullMap(this, (Map<String, Object>) src, false, false);
         } else {
@@ -99,133 +101,175 @@ public abstract class DataObject extends CayenneDataObject {
      */
     public void mergeNotNullPlain(Object src) throws Exception {
         if (src instanceof ObjectNode) {
-            src = JsonUtils.populateMapByJsonNode((ObjectNode) src, new HashMap<>());
-        }
-        if (src instanceof Map) {
+            copyNotNullJson((ObjectNode) src);
+        } else if (src instanceof Map) {
             copyNotNullMap(this, (Map<String, Object>) src, false, false);
         } else {
             copyNotNullProperties(this, src, false, false);
         }
     }
 
-    private Object preprocessPropValue(Object value, Class<?> destType) throws Exception {
-        if (destType != null) {
-            if (destType == Date.class || Date.class.isAssignableFrom(destType)) {
-                if (value instanceof String) {
-                    try {
-                        value = Long.parseLong((String) value);
-                    } catch (NumberFormatException ignored) {
-                    }
-                }
-                if (value instanceof Number) {
-                    value = new Date(((Number) value).longValue());
-                }
-            } else if (destType == Integer.class) {
-                if (value instanceof String) {
-                    value = Integer.valueOf((String) value);
-                } else if (value instanceof Number) {
-                    value = ((Number) value).intValue();
-                }
-            } else if (destType == Long.class) {
-                if (value instanceof String) {
-                    value = Long.valueOf((String) value);
-                } else if (value instanceof Number) {
-                    value = ((Number) value).longValue();
-                }
+    /**
+     * Merge current object with JSON object read from the specified parser.
+     * Parser should be positioned either before or at the object start token.
+     * Fields not mapped to entity attributes are skipped without being materialized.
+     */
+    public void mergeNotNullPlain(JsonParser parser) throws Exception {
+        TypeCoercions coercions = typeCoercions();
+        JsonToken t = parser.currentToken();
+        if (t == null) {
+            t = parser.nextToken();
+        }
+        if (t != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("JSON object expected, got: " + t);
+        }
+        Map<String, MergePlan.Setter> setters = MergePlan.settersOf(getClass());
+        EntityAttributes attrs = EntityAttributes.of(this);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            t = parser.nextToken();
+            MergePlan.Setter setter = setters.get(name);
+            if (setter == null || setter.isRelation() || attrs.isRelationship(name)) {
+                parser.skipChildren();
+                continue;
             }
+            Class<?> type = attrs.getType(name);
+            if (type == null) {
+                type = setter.getType();
+            }
+            Object value = jsonValue(parser, t, type);
+            if (value != null) {
+                setter.set(this, coercions.coerce(value, type));
+            }
+        }
+    }
+
+    private void copyNotNullJson(ObjectNode orig) throws Exception {
+        TypeCoercions coercions = typeCoercions();
+        Map<String, MergePlan.Setter> setters = MergePlan.settersOf(getClass());
+        EntityAttributes attrs = EntityAttributes.of(this);
+        Iterator<Map.Entry<String, JsonNode>> fields = orig.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> f = fields.next();
+            String name = f.getKey();
+            MergePlan.Setter setter = setters.get(name);
+            if (setter == null || setter.isRelation() || attrs.isRelationship(name)) {
+                continue;
+            }
+            Class<?> type = attrs.getType(name);
+            if (type == null) {
+                type = setter.getType();
+            }
+            Object value = jsonValue(f.getValue(), type);
+            if (value != null) {
+                setter.set(this, coercions.coerce(value, type));
+            }
+        }
+    }
+
+    private static Object jsonValue(JsonNode n, Class<?> type) {
+        if (type != null && JsonNode.class.isAssignableFrom(type) && type.isInstance(n)) {
+            // JsonNode typed attributes (jsonb)
+            return n.isNull() ? null : n;
+        }
+        return JsonUtils.nodeAsObject(n);
+    }
+
+    private static Object jsonValue(JsonParser p, JsonToken t, Class<?> type) throws IOException {
+        switch (t) {
+            case VALUE_STRING:
+                return p.getText();
+            case VALUE_NUMBER_INT:
+                return p.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return (type == BigDecimal.class) ? p.getDecimalValue() : p.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_EMBEDDED_OBJECT:
+                return p.getEmbeddedObject();
+            case START_OBJECT:
+            case START_ARRAY:
+                if (type == null
+                    || !(JsonNode.class.isAssignableFrom(type) || type.isAssignableFrom(Map.class) || type.isAssignableFrom(List.class))) {
+                    p.skipChildren();
+                    return null;
+                }
+                ObjectCodec codec = p.getCodec();
+                JsonNode n = (codec != null ? codec : treeMapper).readTree(p);
+                return n != null ? jsonValue(n, type) : null;
+            default:
+                return null;
         }
-        return value;
     }
 
-    @SuppressWarnings("OverlyNestedMethod")
+    /**
+     * Coercions of the runtime this object context belongs to.
+     */
+    private TypeCoercions typeCoercions() {
+        ObjectContext ctx = objectContext;
+        return TypeCoercions.of((ctx != null) ? ctx.getEntityResolver() : null);
+    }
+
     private void copyNotNullProperties(Object dest, Object orig, boolean allowNulls, boolean allowRelations) throws Exception {
         if (orig == null) {
             return;
         }
-        PropertyUtilsBean propertyUtils = BeanUtilsBean.getInstance().getPropertyUtils();
-        PropertyDescriptor[] origDescriptors = propertyUtils.getPropertyDescriptors(orig);
-        for (int i = 0; i < origDescriptors.length; i++) {
-            String name = origDescriptors[i].getName();
-            PropertyDescriptor destDescriptor = propertyUtils.getPropertyDescriptor(dest, name);
-            Class<?> destType = destDescriptor != null ? destDescriptor.getPropertyType() : null;
-            if (propertyUtils.isReadable(orig, name) && propertyUtils.isWriteable(dest, name)) {
-                try {
-                    Method writeMethod = propertyUtils.getWriteMethod(destDescriptor);
-                    Class dc = writeMethod.getDeclaringClass();
-                    //noinspection ObjectEquality
-                    if (dc == CayenneDataObject.class || dc == PersistentObject.class || dc == DataObject.class) {
-                        continue;
-                    }
-                    Object value = propertyUtils.getSimpleProperty(orig, name);
-                    if (!allowNulls && value == null) {
-                        continue;
-                    }
-                    if (!allowRelations) {
-                        if ((destType != null && Persistent.class.isAssignableFrom(destType)) || value instanceof Persistent) {
-                            continue;
-                        }
-                        if (value instanceof Map
-                            && !((Map) value).isEmpty()
-                            && (((Map) value).values().iterator().next()) instanceof Persistent) {
-                            continue;
-                        }
-                        if (value instanceof Iterable) {
-                            Iterator iter = ((Iterable) value).iterator();
-                            if (iter.hasNext() && iter.next() instanceof Persistent) {
-                                continue;
-                            }
-                        }
-                    }
-                    propertyUtils.setSimpleProperty(dest, name, preprocessPropValue(value, destType));
-                } catch (NoSuchMethodException ignored) {
-                }
+        TypeCoercions coercions = typeCoercions();
+        MergePlan plan = MergePlan.forBean(dest.getClass(), orig.getClass());
+        for (MergePlan.Property p : plan.getProperties()) {
+            MergePlan.Setter setter = p.getSetter();
+            if (!allowRelations && setter.isRelation()) {
+                continue;
             }
+            Object value = p.get(orig);
+            if (!allowNulls && value == null) {
+                continue;
+            }
+            if (!allowRelations && setter.isCheckValue() && isRelationValue(value)) {
+                continue;
+            }
+            setter.set(dest, coercions.coerce(value, setter.getType()));
         }
     }
 
-    @SuppressWarnings("OverlyNestedMethod")
     private void copyNotNullMap(Object dest, Map<String, Object> orig, boolean allowNulls, boolean allowRelations) throws Exception {
         if (orig == null) {
             return;
         }
-        PropertyUtilsBean propertyUtils = BeanUtilsBean.getInstance().getPropertyUtils();
+        TypeCoercions coercions = typeCoercions();
+        Map<String, MergePlan.Setter> setters = MergePlan.settersOf(dest.getClass());
         for (Map.Entry<String, Object> entry : orig.entrySet()) {
-            String name = entry.getKey();
-            PropertyDescriptor destDescriptor = propertyUtils.getPropertyDescriptor(dest, name);
-            Class<?> destType = destDescriptor != null ? destDescriptor.getPropertyType() : null;
-            if (propertyUtils.isWriteable(dest, name)) {
-                try {
-                    Method writeMethod = propertyUtils.getWriteMethod(destDescriptor);
-                    Class dc = writeMethod.getDeclaringClass();
-                    //noinspection ObjectEquality
-                    if (dc == CayenneDataObject.class || dc == PersistentObject.class || dc == DataObject.class) {
-                        continue;
-                    }
-                    Object value = orig.get(name);
-                    if (!allowNulls && value == null) {
-                        continue;
-                    }
-                    if (!allowRelations) {
-                        if ((destType != null && Persistent.class.isAssignableFrom(destType)) || value instanceof Persistent) {
-                            continue;
-                        }
-                        if (value instanceof Map
-                            && !((Map) value).isEmpty()
-                            && (((Map) value).values().iterator().next()) instanceof Persistent) {
-                            continue;
-                        }
-                        if (value instanceof Iterable) {
-                            Iterator iter = ((Iterable) value).iterator();
-                            if (iter.hasNext() && iter.next() instanceof Persistent) {
-                                continue;
-                            }
-                        }
-                    }
-                    propertyUtils.setSimpleProperty(dest, name, preprocessPropValue(value, destType));
-                } catch (NoSuchMethodException ignored) {
-                }
+            MergePlan.Setter setter = setters.get(entry.getKey());
+            if (setter == null || (!allowRelations && setter.isRelation())) {
+                continue;
+            }
+            Object value = entry.getValue();
+            if (!allowNulls && value == null) {
+                continue;
+            }
+            if (!allowRelations && setter.isCheckValue() && isRelationValue(value)) {
+                continue;
             }
+            setter.set(dest, coercions.coerce(value, setter.getType()));
+        }
+    }
+
+    private static boolean isRelationValue(Object value) {
+        if (value instanceof Persistent) {
+            return true;
+        }
+        if (value instanceof Map
+            && !((Map) value).isEmpty()
+            && (((Map) value).values().iterator().next()) instanceof Persistent) {
+            return true;
+        }
+        if (value instanceof Iterable) {
+            Iterator iter = ((Iterable) value).iterator();
+            return iter.hasNext() && iter.next() instanceof Persistent;
         }
+        return false;
     }
 
     public static class DumbCayenneContext extends CayenneContext {
@@ -0,0 +1,95 @@
+package com.softmotions.cayenne.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.map.ObjRelationship;
+
+/**
+ * Attribute java types and relationship names of a persistent class
+ * as declared by its {@link ObjEntity}.
+ * Resolved once per persistent class on first access.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+final class EntityAttributes {
+
+    private static final EntityAttributes NONE = new EntityAttributes(Collections.emptyMap(), Collections.emptySet());
+
+    private static final ClassValue<Holder> CACHE = new ClassValue<Holder>() {
+        @Override
+        protected Holder computeValue(Class<?> type) {
+            return new Holder();
+        }
+    };
+
+    private final Map<String, Class<?>> types;
+
+    private final Set<String> relationships;
+
+    private EntityAttributes(Map<String, Class<?>> types, Set<String> relationships) {
+        this.types = types;
+        this.relationships = relationships;
+    }
+
+    /**
+     * Metadata for the given object.
+     * Returns empty metadata if object is not bound to a real object context.
+     */
+    static EntityAttributes of(DataObject obj) {
+        Holder h = CACHE.get(obj.getClass());
+        EntityAttributes attrs = h.attrs;
+        if (attrs != null) {
+            return attrs;
+        }
+        ObjectContext ctx = obj.getObjectContext();
+        if (ctx == null || obj.hasDumbObjectContext()) {
+            return NONE;
+        }
+        ObjEntity entity = ctx.getEntityResolver().getObjEntity((Persistent) obj);
+        if (entity == null) {
+            return NONE;
+        }
+        attrs = resolve(entity);
+        h.attrs = attrs;
+        return attrs;
+    }
+
+    private static EntityAttributes resolve(ObjEntity entity) {
+        Map<String, Class<?>> types = new HashMap<>();
+        for (ObjAttribute a : entity.getAttributes()) {
+            Class<?> jc = a.getJavaClass();
+            if (jc != null) {
+                types.put(a.getName(), jc);
+            }
+        }
+        Set<String> relationships = new HashSet<>();
+        for (ObjRelationship r : entity.getRelationships()) {
+            relationships.add(r.getName());
+        }
+        return new EntityAttributes(types, relationships);
+    }
+
+    /**
+     * Java type of the specified attribute or {@code null} if
+     * attribute is not declared in the entity.
+     */
+    Class<?> getType(String name) {
+        return types.get(name);
+    }
+
+    boolean isRelationship(String name) {
+        return relationships.contains(name);
+    }
+
+    private static final class Holder {
+        private volatile EntityAttributes attrs;
+    }
+}
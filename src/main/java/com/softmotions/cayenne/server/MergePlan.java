@@ -0,0 +1,241 @@
+package com.softmotions.cayenne.server;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cayenne.CayenneDataObject;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.PersistentObject;
+import org.apache.commons.beanutils.BeanUtilsBean;
+import org.apache.commons.beanutils.PropertyUtilsBean;
+
+/**
+ * Precompiled property copy plan used by {@link DataObject} merge methods.
+ * <p>
+ * Property descriptors, setter skip rules and static relationship filtering
+ * are resolved once per (source class, destination class) pair.
+ * Assignments are performed through {@link MethodHandle}s.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+final class MergePlan {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final Property[] EMPTY = new Property[0];
+
+    /**
+     * Destination class -> writable properties by name.
+     */
+    private static final ClassValue<Map<String, Setter>> SETTERS = new ClassValue<Map<String, Setter>>() {
+        @Override
+        protected Map<String, Setter> computeValue(Class<?> type) {
+            return resolveSetters(type);
+        }
+    };
+
+    /**
+     * Destination class -> (source class -> plan).
+     */
+    private static final ClassValue<ConcurrentMap<Class<?>, MergePlan>> PLANS = new ClassValue<ConcurrentMap<Class<?>, MergePlan>>() {
+        @Override
+        protected ConcurrentMap<Class<?>, MergePlan> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final Property[] properties;
+
+    private MergePlan(Property[] properties) {
+        this.properties = properties;
+    }
+
+    Property[] getProperties() {
+        return properties;
+    }
+
+    /**
+     * Writable properties of the given destination class,
+     * used to merge {@link Map} sources.
+     */
+    static Map<String, Setter> settersOf(Class<?> destType) {
+        return SETTERS.get(destType);
+    }
+
+    /**
+     * Copy plan from POJO source class into destination class.
+     */
+    static MergePlan forBean(Class<?> destType, Class<?> srcType) {
+        ConcurrentMap<Class<?>, MergePlan> plans = PLANS.get(destType);
+        MergePlan plan = plans.get(srcType);
+        if (plan == null) {
+            plan = plans.computeIfAbsent(srcType, st -> compile(destType, st));
+        }
+        return plan;
+    }
+
+    private static MergePlan compile(Class<?> destType, Class<?> srcType) {
+        Map<String, Setter> setters = SETTERS.get(destType);
+        if (setters.isEmpty()) {
+            return new MergePlan(EMPTY);
+        }
+        PropertyUtilsBean pu = BeanUtilsBean.getInstance().getPropertyUtils();
+        List<Property> props = new ArrayList<>();
+        for (PropertyDescriptor pd : pu.getPropertyDescriptors(srcType)) {
+            Setter setter = setters.get(pd.getName());
+            if (setter == null) {
+                continue;
+            }
+            Method rm = pu.getReadMethod(srcType, pd);
+            if (rm == null || rm.getParameterCount() != 0) {
+                continue;
+            }
+            props.add(new Property(setter, unreflect(rm).asType(GETTER_TYPE)));
+        }
+        return new MergePlan(props.toArray(EMPTY));
+    }
+
+    private static Map<String, Setter> resolveSetters(Class<?> destType) {
+        PropertyUtilsBean pu = BeanUtilsBean.getInstance().getPropertyUtils();
+        Map<String, Setter> setters = new HashMap<>();
+        for (PropertyDescriptor pd : pu.getPropertyDescriptors(destType)) {
+            Method wm = pu.getWriteMethod(destType, pd);
+            if (wm == null || wm.getParameterCount() != 1) {
+                continue;
+            }
+            Class<?> dc = wm.getDeclaringClass();
+            //noinspection ObjectEquality
+            if (dc == CayenneDataObject.class || dc == PersistentObject.class || dc == DataObject.class) {
+                continue;
+            }
+            Class<?> type = pd.getPropertyType();
+            setters.put(pd.getName(), new Setter(pd.getName(), type, unreflect(wm).asType(SETTER_TYPE)));
+        }
+        return setters.isEmpty() ? Collections.emptyMap() : setters;
+    }
+
+    private static MethodHandle unreflect(Method m) {
+        try {
+            return MethodHandles.publicLookup().unreflect(m);
+        } catch (IllegalAccessException ignored) {
+        }
+        try {
+            m.setAccessible(true);
+            return MethodHandles.lookup().unreflect(m);
+        } catch (IllegalAccessException | SecurityException e) {
+            throw new IllegalStateException("Unable to access method: " + m, e);
+        }
+    }
+
+    /**
+     * Returns true if values of the given type can never be a relationship value
+     * (persistent object, collection or map of persistent objects).
+     */
+    private static boolean isScalarType(Class<?> type) {
+        return type.isPrimitive()
+               || type.isEnum()
+               || type.isArray()
+               || type == String.class
+               || type == Boolean.class
+               || type == Character.class
+               || Number.class.isAssignableFrom(type)
+               || Date.class.isAssignableFrom(type);
+    }
+
+    static final class Setter {
+
+        private final String name;
+
+        private final Class<?> type;
+
+        private final MethodHandle handle;
+
+        /**
+         * Destination property is a to-one relationship.
+         */
+        private final boolean relation;
+
+        /**
+         * Assigned values must be checked for relationship values.
+         */
+        private final boolean checkValue;
+
+        private Setter(String name, Class<?> type, MethodHandle handle) {
+            this.name = name;
+            this.type = type;
+            this.handle = handle;
+            this.relation = type != null && Persistent.class.isAssignableFrom(type);
+            this.checkValue = type == null || !isScalarType(type);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Class<?> getType() {
+            return type;
+        }
+
+        boolean isRelation() {
+            return relation;
+        }
+
+        boolean isCheckValue() {
+            return checkValue;
+        }
+
+        void set(Object dest, Object value) throws Exception {
+            try {
+                handle.invokeExact(dest, value);
+            } catch (ClassCastException | NullPointerException e) {
+                throw new IllegalArgumentException("Cannot set property: '" + name
+                                                   + "' of type: " + type.getName()
+                                                   + " to value of type: "
+                                                   + (value != null ? value.getClass().getName() : "null"), e);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable tr) {
+                throw new RuntimeException(tr);
+            }
+        }
+    }
+
+    static final class Property {
+
+        private final Setter setter;
+
+        private final MethodHandle getter;
+
+        private Property(Setter setter, MethodHandle getter) {
+            this.setter = setter;
+            this.getter = getter;
+        }
+
+        Setter getSetter() {
+            return setter;
+        }
+
+        Object get(Object src) throws Exception {
+            try {
+                return (Object) getter.invokeExact(src);
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable tr) {
+                throw new RuntimeException(tr);
+            }
+        }
+    }
+}
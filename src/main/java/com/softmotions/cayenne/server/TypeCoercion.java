@@ -0,0 +1,13 @@
+package com.softmotions.cayenne.server;
+
+/**
+ * Converts value of source type into value of target property type.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ * @see TypeCoercions
+ */
+@FunctionalInterface
+public interface TypeCoercion<S, T> {
+
+    T coerce(S value) throws Exception;
+}
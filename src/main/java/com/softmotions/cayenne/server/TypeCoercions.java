@@ -0,0 +1,266 @@
+package com.softmotions.cayenne.server;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.commons.lang3.ClassUtils;
+
+/**
+ * Registry of value coercions used when plain values (JSON scalars, map values, bean properties)
+ * are merged into {@link DataObject} properties.
+ * <p>
+ * Coercions are registered per (source class, target class) pair.
+ * Resolved coercions are cached per concrete (source class, target class) pair
+ * so value conversion costs a single table lookup.
+ * Table can be precomputed for all attribute types of a data map by {@link #prepare(EntityResolver)}.
+ * <p>
+ * Every runtime owns its registry attached by {@link #attach(EntityResolver)},
+ * objects of contexts without attached registry use read-only {@link #getDefaults() defaults}.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+@SuppressWarnings("unchecked")
+public final class TypeCoercions {
+
+    private static final TypeCoercions defaults = new TypeCoercions(true);
+
+    /**
+     * Registries attached to entity resolvers of runtimes.
+     */
+    private static final Map<EntityResolver, TypeCoercions> attached = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final TypeCoercion<Object, Object> IDENTITY = v -> v;
+
+    /**
+     * Value source types produced by JSON and map sources.
+     */
+    private static final Class<?>[] PLAIN_TYPES = {
+            String.class, Integer.class, Long.class, Double.class,
+            BigInteger.class, BigDecimal.class, Boolean.class
+    };
+
+    /**
+     * Registered rules: target class -> list of rules.
+     */
+    private final Map<Class<?>, List<Rule>> rules = new ConcurrentHashMap<>();
+
+    /**
+     * Resolved table: target class -> (source class -> coercion).
+     */
+    private final Map<Class<?>, Map<Class<?>, TypeCoercion<Object, Object>>> table = new ConcurrentHashMap<>();
+
+    private final boolean readOnly;
+
+    /**
+     * Shared read-only registry of default coercions.
+     */
+    public static TypeCoercions getDefaults() {
+        return defaults;
+    }
+
+    /**
+     * Registry attached to the given entity resolver or defaults.
+     */
+    public static TypeCoercions of(EntityResolver resolver) {
+        TypeCoercions c = (resolver != null) ? attached.get(resolver) : null;
+        return (c != null) ? c : defaults;
+    }
+
+    /**
+     * Creates registry of default coercions.
+     */
+    public TypeCoercions() {
+        this(false);
+    }
+
+    private TypeCoercions(boolean readOnly) {
+        registerDefaults();
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Registers coercion from values assignable to {@code source} into {@code target} type.
+     * Coercions registered later take precedence over earlier ones,
+     * coercion registered again for the same pair replaces the previous one.
+     */
+    public synchronized <S, T> TypeCoercions register(Class<S> source,
+                                                      Class<T> target,
+                                                      TypeCoercion<? super S, ? extends T> coercion) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Default type coercions are read-only");
+        }
+        List<Rule> list = rules.computeIfAbsent(target, k -> new ArrayList<>());
+        list.removeIf(r -> r.source == source);
+        list.add(0, new Rule(source, (TypeCoercion) coercion));
+        table.clear();
+        return this;
+    }
+
+    /**
+     * Attaches this registry to objects of contexts using the given entity resolver
+     * and precomputes coercions for its attribute types.
+     */
+    public TypeCoercions attach(EntityResolver resolver) {
+        prepare(resolver);
+        attached.put(resolver, this);
+        return this;
+    }
+
+    /**
+     * Precomputes coercions from plain value types into all attribute types
+     * declared by entities of the given resolver.
+     */
+    public void prepare(EntityResolver resolver) {
+        for (ObjEntity e : resolver.getObjEntities()) {
+            for (ObjAttribute a : e.getAttributes()) {
+                Class<?> jc = a.getJavaClass();
+                if (jc == null) {
+                    continue;
+                }
+                for (Class<?> st : PLAIN_TYPES) {
+                    lookup(st, jc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts given value into value of target type.
+     * Values having no registered coercion are returned as is.
+     */
+    public Object coerce(Object value, Class<?> target) throws Exception {
+        if (value == null || target == null) {
+            return value;
+        }
+        return lookup(value.getClass(), target).coerce(value);
+    }
+
+    private TypeCoercion<Object, Object> lookup(Class<?> source, Class<?> target) {
+        Map<Class<?>, TypeCoercion<Object, Object>> tt = table.get(target);
+        if (tt == null) {
+            tt = table.computeIfAbsent(target, k -> new ConcurrentHashMap<>());
+        }
+        TypeCoercion<Object, Object> c = tt.get(source);
+        if (c == null) {
+            c = tt.computeIfAbsent(source, k -> resolve(source, target));
+        }
+        return c;
+    }
+
+    private TypeCoercion<Object, Object> resolve(Class<?> source, Class<?> target) {
+        Class<?> wt = ClassUtils.primitiveToWrapper(target);
+        List<Rule> list = rules.get(wt);
+        if (list != null) {
+            synchronized (this) {
+                for (Rule r : list) {
+                    if (r.source == source) {
+                        return r.coercion;
+                    }
+                }
+            }
+        }
+        // values already of target type are never converted by rules of their supertypes
+        if (wt.isAssignableFrom(source)) {
+            return IDENTITY;
+        }
+        if (list != null) {
+            synchronized (this) {
+                for (Rule r : list) {
+                    if (r.source.isAssignableFrom(source)) {
+                        return r.coercion;
+                    }
+                }
+            }
+        }
+        if (wt.isEnum() && source == String.class) {
+            Class et = wt;
+            return v -> Enum.valueOf(et, (String) v);
+        }
+        return IDENTITY;
+    }
+
+    private void registerDefaults() {
+        register(Number.class, Integer.class, Number::intValue);
+        register(String.class, Integer.class, Integer::valueOf);
+        register(Number.class, Long.class, Number::longValue);
+        register(String.class, Long.class, Long::valueOf);
+        register(Number.class, Short.class, Number::shortValue);
+        register(String.class, Short.class, Short::valueOf);
+        register(Number.class, Byte.class, Number::byteValue);
+        register(String.class, Byte.class, Byte::valueOf);
+        register(Number.class, Double.class, Number::doubleValue);
+        register(String.class, Double.class, Double::valueOf);
+        register(Number.class, Float.class, Number::floatValue);
+        register(String.class, Float.class, Float::valueOf);
+
+        register(Number.class, BigDecimal.class, v -> new BigDecimal(v.toString()));
+        register(Integer.class, BigDecimal.class, v -> BigDecimal.valueOf(v.longValue()));
+        register(Long.class, BigDecimal.class, BigDecimal::valueOf);
+        register(Double.class, BigDecimal.class, BigDecimal::valueOf);
+        register(BigInteger.class, BigDecimal.class, BigDecimal::new);
+        register(String.class, BigDecimal.class, BigDecimal::new);
+        register(Number.class, BigInteger.class, v -> BigInteger.valueOf(v.longValue()));
+        register(BigDecimal.class, BigInteger.class, BigDecimal::toBigInteger);
+        register(String.class, BigInteger.class, BigInteger::new);
+
+        register(String.class, Boolean.class, Boolean::valueOf);
+        register(Number.class, Boolean.class, v -> v.intValue() != 0);
+        register(String.class, Character.class, v -> v.isEmpty() ? null : v.charAt(0));
+        register(String.class, UUID.class, UUID::fromString);
+        register(String.class, byte[].class, v -> Base64.getDecoder().decode(v));
+
+        register(Number.class, Date.class, v -> new Date(v.longValue()));
+        register(String.class, Date.class, v -> new Date(parseEpochMillis(v)));
+        register(Number.class, Timestamp.class, v -> new Timestamp(v.longValue()));
+        register(String.class, Timestamp.class, v -> new Timestamp(parseEpochMillis(v)));
+        register(Number.class, java.sql.Date.class, v -> new java.sql.Date(v.longValue()));
+        register(String.class, java.sql.Date.class, v -> new java.sql.Date(parseEpochMillis(v)));
+        register(Number.class, Instant.class, v -> Instant.ofEpochMilli(v.longValue()));
+        register(String.class, Instant.class, Instant::parse);
+        register(String.class, LocalDate.class, LocalDate::parse);
+        register(String.class, LocalTime.class, LocalTime::parse);
+        register(String.class, LocalDateTime.class, LocalDateTime::parse);
+        register(String.class, OffsetDateTime.class, OffsetDateTime::parse);
+    }
+
+    /**
+     * Accepts either of epoch milliseconds or ISO-8601 instant string.
+     */
+    private static long parseEpochMillis(String v) {
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException ignored) {
+            return Instant.parse(v).toEpochMilli();
+        }
+    }
+
+    private static final class Rule {
+
+        private final Class<?> source;
+
+        private final TypeCoercion<Object, Object> coercion;
+
+        private Rule(Class<?> source, TypeCoercion<Object, Object> coercion) {
+            this.source = source;
+            this.coercion = coercion;
+        }
+    }
+}
@@ -1,18 +1,27 @@
 package com.softmotions.cayenne.server.modules.jackson.pg;
 
+import java.io.IOException;
 import java.sql.CallableStatement;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.Objects;
+import java.util.Set;
 
 import org.apache.cayenne.access.types.ExtendedType;
+import org.apache.cayenne.access.types.ExtendedTypeFactory;
 import org.apache.cayenne.configuration.Constants;
 import org.apache.cayenne.di.Binder;
+import org.apache.cayenne.di.ListBuilder;
 import org.apache.cayenne.di.Module;
 import org.postgresql.util.PGobject;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -23,21 +32,201 @@ public class JacksonPostgresCayenneModule implements Module {
 
     private final ObjectMapper mapper;
 
+    private final boolean binary;
+
+    private final Set<Class<?>> pojoTypes = new LinkedHashSet<>();
+
     public JacksonPostgresCayenneModule() {
         this(new ObjectMapper());
     }
 
     public JacksonPostgresCayenneModule(ObjectMapper mapper) {
+        this(mapper, false);
+    }
+
+    /**
+     * @param mapper Jackson object mapper
+     * @param binary If true jsonb values are read as raw UTF-8 bytes and parsed by Jackson
+     *               without intermediate {@link String}. Values are written as {@link PgJsonbObject}
+     *               which is sent in binary form if jsonb binary transfer is enabled
+     *               for connection (pgjdbc {@code binaryTransferEnable=jsonb}).
+     */
+    public JacksonPostgresCayenneModule(ObjectMapper mapper, boolean binary) {
         this.mapper = mapper;
+        this.binary = binary;
+    }
+
+    /**
+     * Registers POJO classes stored in jsonb columns.
+     * Classes annotated by {@link JsonbType} are discovered
+     * from entity attribute types automatically.
+     */
+    public JacksonPostgresCayenneModule withTypes(Class<?>... types) {
+        pojoTypes.addAll(Arrays.asList(types));
+        return this;
     }
 
     @Override
     public void configure(Binder binder) {
-        binder
+        ListBuilder<ExtendedType> types = binder
                 .bindList(ExtendedType.class, Constants.SERVER_DEFAULT_TYPES_LIST)
                 .add(new JacksonJSONType(ObjectNode.class.getName()))
                 .add(new JacksonJSONType(ArrayNode.class.getName()))
-                .add(new JacksonJSONType(JsonNode.class.getName()));
+                .add(new JacksonJSONType(JsonNode.class.getName()))
+                .add(new JsonbValueType());
+        for (Class<?> pt : pojoTypes) {
+            types.add(new JacksonPojoType(pt));
+        }
+        binder
+                .bindList(ExtendedTypeFactory.class, Constants.SERVER_TYPE_FACTORIES_LIST)
+                .add(new JsonbTypeFactory());
+    }
+
+    /**
+     * Creates {@link JacksonPojoType} for entity attributes of {@link JsonbType} annotated classes.
+     */
+    private class JsonbTypeFactory implements ExtendedTypeFactory {
+
+        @Override
+        public ExtendedType getType(Class<?> objectClass) {
+            if (objectClass.isAnnotationPresent(JsonbType.class)) {
+                return new JacksonPojoType(objectClass);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * POJO attributes bound by Jackson data binding
+     * with {@link ObjectReader}/{@link ObjectWriter} instances prebuilt for the attribute class.
+     */
+    private class JacksonPojoType implements ExtendedType {
+
+        private final Class<?> type;
+
+        private final ObjectReader reader;
+
+        private final ObjectWriter writer;
+
+        JacksonPojoType(Class<?> type) {
+            this.type = type;
+            this.reader = mapper.readerFor(type);
+            this.writer = mapper.writerFor(type);
+        }
+
+        @Override
+        public String getClassName() {
+            return type.getName();
+        }
+
+        @Override
+        public void setJdbcObject(PreparedStatement ps,
+                                  Object value,
+                                  int pos,
+                                  int type,
+                                  int scale) throws Exception {
+            if (value == null) {
+                ps.setNull(pos, type);
+            } else if (binary) {
+                ps.setObject(pos, new PgJsonbObject(writer.writeValueAsBytes(value)));
+            } else {
+                PGobject po = new PGobject();
+                po.setType("jsonb");
+                po.setValue(writer.writeValueAsString(value));
+                ps.setObject(pos, po);
+            }
+        }
+
+        @Override
+        public Object materializeObject(ResultSet rs, int index, int type) throws Exception {
+            return binary ? readValue(rs.getBytes(index)) : readValue(rs.getString(index));
+        }
+
+        @Override
+        public Object materializeObject(CallableStatement rs, int index, int type) throws Exception {
+            return binary ? readValue(rs.getBytes(index)) : readValue(rs.getString(index));
+        }
+
+        private Object readValue(byte[] data) throws IOException {
+            if (data == null) {
+                return null;
+            }
+            int offset = PgJsonbObject.dataOffset(data);
+            return reader.readValue(data, offset, data.length - offset);
+        }
+
+        private Object readValue(String data) throws IOException {
+            return (data != null) ? reader.readValue(data) : null;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            JacksonPojoType that = (JacksonPojoType) o;
+            return Objects.equals(type, that.type);
+        }
+
+        public int hashCode() {
+            return Objects.hash(type);
+        }
+
+        @Override
+        public String toString(Object value) {
+            if (value == null) {
+                return "NULL";
+            }
+            return value.toString();
+        }
+    }
+
+    /**
+     * Lazily parsed {@link JsonbValue} attributes.
+     */
+    private class JsonbValueType implements ExtendedType {
+
+        @Override
+        public String getClassName() {
+            return JsonbValue.class.getName();
+        }
+
+        @Override
+        public void setJdbcObject(PreparedStatement ps,
+                                  Object value,
+                                  int pos,
+                                  int type,
+                                  int scale) throws Exception {
+            if (value == null) {
+                ps.setNull(pos, type);
+            } else {
+                ps.setObject(pos, new PgJsonbObject(((JsonbValue) value).toBytes()));
+            }
+        }
+
+        @Override
+        public Object materializeObject(ResultSet rs, int index, int type) throws Exception {
+            return toValue(rs.getBytes(index));
+        }
+
+        @Override
+        public Object materializeObject(CallableStatement rs, int index, int type) throws Exception {
+            return toValue(rs.getBytes(index));
+        }
+
+        private JsonbValue toValue(byte[] raw) {
+            if (raw == null) {
+                return null;
+            }
+            int offset = PgJsonbObject.dataOffset(raw);
+            return JsonbValue.of(mapper, (offset == 0) ? raw : Arrays.copyOfRange(raw, offset, raw.length));
+        }
+
+        @Override
+        public String toString(Object value) {
+            if (value == null) {
+                return "NULL";
+            }
+            return value.toString();
+        }
     }
 
     private class JacksonJSONType implements ExtendedType {
@@ -61,6 +250,8 @@ public class JacksonPostgresCayenneModule implements Module {
                                   int scale) throws Exception {
             if (value == null) {
                 ps.setNull(pos, type);
+            } else if (binary) {
+                ps.setObject(pos, new PgJsonbObject(mapper.writeValueAsBytes(value)));
             } else {
                 PGobject po = new PGobject();
                 po.setType("jsonb");
@@ -71,6 +262,9 @@ public class JacksonPostgresCayenneModule implements Module {
 
         @Override
         public Object materializeObject(ResultSet rs, int index, int type) throws Exception {
+            if (binary) {
+                return readTree(rs.getBytes(index));
+            }
             String value = rs.getString(index);
             if (value == null) {
                 return null;
@@ -81,6 +275,9 @@ public class JacksonPostgresCayenneModule implements Module {
 
         @Override
         public Object materializeObject(CallableStatement rs, int index, int type) throws Exception {
+            if (binary) {
+                return readTree(rs.getBytes(index));
+            }
             String value = rs.getString(index);
             if (value == null) {
                 return null;
@@ -89,6 +286,16 @@ public class JacksonPostgresCayenneModule implements Module {
             }
         }
 
+        private Object readTree(byte[] data) throws IOException {
+            if (data == null) {
+                return null;
+            }
+            int offset = PgJsonbObject.dataOffset(data);
+            try (JsonParser parser = mapper.getFactory().createParser(data, offset, data.length - offset)) {
+                return mapper.readTree(parser);
+            }
+        }
+
         public boolean equals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
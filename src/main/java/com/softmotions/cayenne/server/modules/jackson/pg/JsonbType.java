@@ -0,0 +1,20 @@
+package com.softmotions.cayenne.server.modules.jackson.pg;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks POJO class stored in jsonb columns.
+ * Entity attributes of annotated types are bound directly
+ * by {@link JacksonPostgresCayenneModule} using Jackson data binding.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface JsonbType {
+}
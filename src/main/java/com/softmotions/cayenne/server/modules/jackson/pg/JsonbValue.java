@@ -0,0 +1,134 @@
+package com.softmotions.cayenne.server.modules.jackson.pg;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Lazily parsed jsonb value.
+ * <p>
+ * Keeps raw UTF-8 JSON bytes fetched from result set and parses them
+ * into {@link JsonNode} tree on first {@link #getNode()} call.
+ * Values which were never parsed are written back to database as is,
+ * without re-serialization. Once parsed, the tree is serialized on write
+ * since it could have been modified by application.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public final class JsonbValue implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ObjectMapper defaultMapper = new ObjectMapper();
+
+    private transient ObjectMapper mapper;
+
+    private byte[] data;
+
+    private volatile transient JsonNode node;
+
+    private JsonbValue(ObjectMapper mapper, byte[] data, JsonNode node) {
+        this.mapper = mapper;
+        this.data = data;
+        this.node = node;
+    }
+
+    public static JsonbValue of(JsonNode node) {
+        if (node == null) {
+            throw new IllegalArgumentException("node");
+        }
+        return new JsonbValue(null, null, node);
+    }
+
+    /**
+     * Creates value from UTF-8 encoded JSON text.
+     */
+    public static JsonbValue of(byte[] data) {
+        return of(null, data);
+    }
+
+    static JsonbValue of(ObjectMapper mapper, byte[] data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data");
+        }
+        return new JsonbValue(mapper, data, null);
+    }
+
+    /**
+     * Returns true if JSON tree was already parsed.
+     */
+    public boolean isParsed() {
+        return node != null;
+    }
+
+    /**
+     * JSON tree of this value, parsed on first access.
+     */
+    public JsonNode getNode() {
+        JsonNode n = node;
+        if (n == null) {
+            synchronized (this) {
+                n = node;
+                if (n == null) {
+                    try {
+                        n = mapper().readTree(data);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    node = n;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * UTF-8 encoded JSON text of this value.
+     * Raw fetched bytes are returned if tree was not parsed.
+     */
+    public byte[] toBytes() throws IOException {
+        JsonNode n = node;
+        if (n == null) {
+            return data;
+        }
+        return mapper().writeValueAsBytes(n);
+    }
+
+    private ObjectMapper mapper() {
+        return (mapper != null) ? mapper : defaultMapper;
+    }
+
+    private Object writeReplace() throws IOException {
+        if (node != null) {
+            return new JsonbValue(null, toBytes(), null);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        JsonbValue that = (JsonbValue) o;
+        if (node == null && that.node == null) {
+            return Arrays.equals(data, that.data);
+        }
+        return getNode().equals(that.getNode());
+    }
+
+    @Override
+    public int hashCode() {
+        return getNode().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        JsonNode n = node;
+        return (n != null) ? n.toString() : new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,87 @@
+package com.softmotions.cayenne.server.modules.jackson.pg;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+/**
+ * jsonb parameter value backed by UTF-8 encoded JSON bytes.
+ * <p>
+ * If jsonb binary transfer is enabled for connection the value is sent
+ * in jsonb binary format (version byte followed by UTF-8 text)
+ * without being converted to {@link String}.
+ * Otherwise pgjdbc falls back to {@link #getValue()}.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class PgJsonbObject extends PGobject implements PGBinaryObject {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * jsonb binary format version.
+     */
+    static final byte JSONB_VERSION = 1;
+
+    private byte[] data;
+
+    public PgJsonbObject() {
+        setType("jsonb");
+    }
+
+    public PgJsonbObject(byte[] data) {
+        this();
+        this.data = data;
+    }
+
+    /**
+     * UTF-8 encoded JSON text.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Offset of JSON text in raw jsonb column data.
+     * Binary transferred jsonb values are prefixed by format version byte.
+     */
+    static int dataOffset(byte[] raw) {
+        return (raw.length > 0 && raw[0] == JSONB_VERSION) ? 1 : 0;
+    }
+
+    @Override
+    public String getValue() {
+        if (value == null && data != null) {
+            value = new String(data, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    @Override
+    public void setValue(String value) throws SQLException {
+        super.setValue(value);
+        this.data = (value != null) ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    @Override
+    public void setByteValue(byte[] value, int offset) throws SQLException {
+        int start = (value.length > offset && value[offset] == JSONB_VERSION) ? offset + 1 : offset;
+        byte[] d = new byte[value.length - start];
+        System.arraycopy(value, start, d, 0, d.length);
+        this.data = d;
+        this.value = null;
+    }
+
+    @Override
+    public int lengthInBytes() {
+        return (data != null) ? data.length + 1 : 0;
+    }
+
+    @Override
+    public void toBytes(byte[] bytes, int offset) {
+        bytes[offset] = JSONB_VERSION;
+        System.arraycopy(data, 0, bytes, offset + 1, data.length);
+    }
+}
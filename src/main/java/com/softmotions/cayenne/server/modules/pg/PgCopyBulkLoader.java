@@ -0,0 +1,618 @@
+package com.softmotions.cayenne.server.modules.pg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.DataObject;
+import org.apache.cayenne.Fault;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.types.ExtendedType;
+import org.apache.cayenne.access.types.ExtendedTypeMap;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.dba.QuotingStrategy;
+import org.apache.cayenne.dba.postgres.PostgresPkGenerator;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.DbJoin;
+import org.apache.cayenne.map.DbKeyGenerator;
+import org.apache.cayenne.map.DbRelationship;
+import org.apache.cayenne.map.EmbeddedAttribute;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.map.ObjRelationship;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.util.PGobject;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Bulk loader of new persistent objects into PostgreSQL tables using {@code COPY FROM STDIN}.
+ * <p>
+ * Attribute values are encoded by {@link ExtendedType}s registered in the data node adapter
+ * (including jsonb types of {@link com.softmotions.cayenne.server.modules.jackson.pg.JacksonPostgresCayenneModule})
+ * and written in COPY text format. Primary keys are taken from permanent object ids, meaningful
+ * PK attributes or master objects of relationships joined on PK, independent keys are allocated
+ * by data node PK generator. Objects are loaded in chunks of {@code chunkSize} rows, one COPY per chunk.
+ * Single numeric keys of PostgreSQL sequences are allocated for the whole chunk by a single
+ * {@code nextval()} over {@code generate_series()} query before the chunk is copied.
+ * To-one relationships are written as foreign key values,
+ * related objects must be already persistent.
+ * Objects registered in object context should be loaded by {@link #copyNewObjects(ObjectContext, Class)}
+ * to avoid their repeated insertion on context commit.
+ * <p>
+ * COPY is executed over the connection bound to current Spring transaction for the given
+ * data source, which must be the data source of
+ * {@link com.softmotions.cayenne.spring.server.tx.CayenneTransactionManager}.
+ * Outside of transaction a new connection is used in auto-commit mode.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class PgCopyBulkLoader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    private final ServerRuntime runtime;
+
+    private final DataSource dataSource;
+
+    private final int chunkSize;
+
+    private final Map<ObjEntity, CopyPlan> plans = new ConcurrentHashMap<>();
+
+    public PgCopyBulkLoader(ServerRuntime runtime, DataSource dataSource) {
+        this(runtime, dataSource, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param dataSource Data source transaction connections are bound to
+     * @param chunkSize  Number of rows copied by single COPY statement
+     */
+    public PgCopyBulkLoader(ServerRuntime runtime, DataSource dataSource, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.runtime = runtime;
+        this.chunkSize = chunkSize;
+        if (dataSource instanceof DelegatingDataSource) {
+            this.dataSource = ((DelegatingDataSource) dataSource).getTargetDataSource();
+        } else {
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * Loads all objects of the given stream.
+     *
+     * @return Number of loaded rows
+     */
+    public <T extends Persistent> long copy(Class<T> type, Stream<? extends T> objects) throws SQLException {
+        return copy(type, objects.iterator());
+    }
+
+    /**
+     * Loads all objects of the given iterator.
+     *
+     * @return Number of loaded rows
+     */
+    public <T extends Persistent> long copy(Class<T> type, Iterator<? extends T> objects) throws SQLException {
+        ObjEntity entity = runtime.getDataDomain().getEntityResolver().getObjEntity(type);
+        if (entity == null) {
+            throw new IllegalArgumentException("Not a persistent class: " + type.getName());
+        }
+        CopyPlan plan = plans.computeIfAbsent(entity, this::compile);
+        Connection con = DataSourceUtils.getConnection(dataSource);
+        try {
+            return plan.copy(con, objects, chunkSize);
+        } catch (IOException e) {
+            throw new SQLException("Failed to encode COPY data for entity: " + entity.getName(), e);
+        } finally {
+            DataSourceUtils.releaseConnection(con, dataSource);
+        }
+    }
+
+    /**
+     * Loads new objects of the given type registered in the specified context.
+     * Loaded objects are unregistered from context and become transient
+     * so they will not be inserted again on context commit.
+     *
+     * @return Number of loaded rows
+     */
+    public <T extends Persistent> long copyNewObjects(ObjectContext context, Class<T> type) throws SQLException {
+        List<T> objects = new ArrayList<>();
+        for (Object o : context.newObjects()) {
+            if (type.isInstance(o)) {
+                objects.add(type.cast(o));
+            }
+        }
+        if (objects.isEmpty()) {
+            return 0;
+        }
+        long count = copy(type, objects.iterator());
+        if (context instanceof DataContext) {
+            ((DataContext) context).unregisterObjects(objects);
+        }
+        return count;
+    }
+
+    private CopyPlan compile(ObjEntity entity) {
+        DbEntity dbEntity = entity.getDbEntity();
+        DataNode node = runtime.getDataDomain().lookupDataNode(entity.getDataMap());
+        ExtendedTypeMap types = node.getAdapter().getExtendedTypes();
+        QuotingStrategy quoting = node.getAdapter().getQuotingStrategy();
+        Map<String, Column> columns = new LinkedHashMap<>();
+        List<PkSource> pkSources = new ArrayList<>();
+
+        for (DbAttribute pk : dbEntity.getPrimaryKeys()) {
+            if (pk.isGenerated()) {
+                continue;
+            }
+            ObjAttribute meaningful = entity.getAttributeForDbAttribute(pk);
+            String attribute = (meaningful != null && !meaningful.isFlattened()) ? meaningful.getName() : null;
+            String master = null;
+            String masterColumn = null;
+            for (ObjRelationship r : entity.getRelationships()) {
+                if (r.isToMany() || r.isFlattened()) {
+                    continue;
+                }
+                DbRelationship dr = r.getDbRelationships().get(0);
+                if (!dr.isToPK() || dr.isToDependentPK()) {
+                    continue;
+                }
+                for (DbJoin j : dr.getJoins()) {
+                    if (j.getSource() == pk) {
+                        master = r.getName();
+                        masterColumn = j.getTargetName();
+                        break;
+                    }
+                }
+                if (master != null) {
+                    break;
+                }
+            }
+            PkSource source = new PkSource(pk, attribute, master, masterColumn);
+            pkSources.add(source);
+            columns.put(pk.getName(), new Column(pk, null, types, (obj, plan) -> plan.pkValue(obj, source)));
+        }
+        for (ObjAttribute a : entity.getAttributes()) {
+            if (a instanceof EmbeddedAttribute) {
+                throw new CayenneRuntimeException("Embedded attributes are not supported by COPY loader: %s.%s",
+                                                  entity.getName(), a.getName());
+            }
+            if (a.isFlattened()) {
+                continue;
+            }
+            DbAttribute da = a.getDbAttribute();
+            if (da == null || columns.containsKey(da.getName())) {
+                continue;
+            }
+            String name = a.getName();
+            columns.put(da.getName(), new Column(da, types.getRegisteredType(a.getType()), types,
+                                                 (obj, plan) -> obj.readPropertyDirectly(name)));
+        }
+        for (ObjRelationship r : entity.getRelationships()) {
+            if (r.isToMany() || r.isFlattened()) {
+                continue;
+            }
+            DbRelationship dr = r.getDbRelationships().get(0);
+            if (!dr.isToPK() || dr.isToDependentPK()) {
+                continue;
+            }
+            String name = r.getName();
+            for (DbJoin j : dr.getJoins()) {
+                DbAttribute fk = j.getSource();
+                if (fk == null || columns.containsKey(fk.getName())) {
+                    continue;
+                }
+                String target = j.getTargetName();
+                columns.put(fk.getName(), new Column(fk, null, types, (obj, plan) -> fkValue(obj, name, target)));
+            }
+        }
+
+        String sequence = null;
+        if (pkSources.size() == 1 && node.getAdapter().getPkGenerator() instanceof PostgresPkGenerator) {
+            PkSource ps = pkSources.get(0);
+            int type = ps.pk.getType();
+            if (type == Types.INTEGER || type == Types.BIGINT || type == Types.SMALLINT || type == Types.NUMERIC) {
+                sequence = sequenceName(dbEntity, quoting);
+            }
+        }
+
+        StringBuilder sql = new StringBuilder("COPY ");
+        sql.append(quoting.quotedFullyQualifiedName(dbEntity)).append(" (");
+        int i = 0;
+        for (Column c : columns.values()) {
+            if (i++ > 0) {
+                sql.append(", ");
+            }
+            sql.append(quoting.quotedName(c.attribute));
+        }
+        sql.append(") FROM STDIN");
+        return new CopyPlan(entity, node, sql.toString(), new ArrayList<>(columns.values()), pkSources, sequence);
+    }
+
+    /**
+     * Name of the PK sequence as used by {@link PostgresPkGenerator}.
+     */
+    private static String sequenceName(DbEntity entity, QuotingStrategy quoting) {
+        DbKeyGenerator kg = entity.getPrimaryKeyGenerator();
+        if (kg != null && DbKeyGenerator.ORACLE_TYPE.equals(kg.getGeneratorType()) && kg.getGeneratorName() != null) {
+            return kg.getGeneratorName().toLowerCase();
+        }
+        return quoting.quotedIdentifier(entity, entity.getCatalog(), entity.getSchema(),
+                                        "pk_" + entity.getName().toLowerCase());
+    }
+
+    private static Object fkValue(DataObject obj, String relationship, String targetColumn) {
+        Object target = obj.readPropertyDirectly(relationship);
+        if (target instanceof Fault) {
+            target = obj.readProperty(relationship);
+        }
+        if (target == null) {
+            return null;
+        }
+        ObjectId oid = ((Persistent) target).getObjectId();
+        if (oid == null || oid.isTemporary()) {
+            throw new CayenneRuntimeException("Related object of relationship: %s is not persistent", relationship);
+        }
+        return oid.getIdSnapshot().get(targetColumn);
+    }
+
+    /**
+     * Sources of primary key value: meaningful attribute,
+     * value propagated from master object or PK generator.
+     */
+    private static final class PkSource {
+
+        private final DbAttribute pk;
+
+        private final String attribute;
+
+        private final String master;
+
+        private final String masterColumn;
+
+        private PkSource(DbAttribute pk, String attribute, String master, String masterColumn) {
+            this.pk = pk;
+            this.attribute = attribute;
+            this.master = master;
+            this.masterColumn = masterColumn;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ValueReader {
+        Object read(DataObject obj, CopyPlan plan) throws Exception;
+    }
+
+    private static final class Column {
+
+        private final DbAttribute attribute;
+
+        /**
+         * Attribute extended type, resolved by value class if null.
+         */
+        private final ExtendedType type;
+
+        private final ExtendedTypeMap types;
+
+        private final ValueReader reader;
+
+        private Column(DbAttribute attribute, ExtendedType type, ExtendedTypeMap types, ValueReader reader) {
+            this.attribute = attribute;
+            this.type = type;
+            this.types = types;
+            this.reader = reader;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object encode(Object value, ValueCapture capture) throws Exception {
+            if (value == null) {
+                return null;
+            }
+            ExtendedType et = (type != null) ? type : types.getRegisteredType(value.getClass());
+            et.setJdbcObject(capture.statement, value, 1, attribute.getType(), attribute.getScale());
+            return capture.take();
+        }
+    }
+
+    private static final class CopyPlan {
+
+        private final ObjEntity entity;
+
+        private final DataNode node;
+
+        private final String sql;
+
+        private final List<Column> columns;
+
+        private final List<PkSource> pkSources;
+
+        /**
+         * PK sequence used to allocate keys per chunk, {@code null} if keys are generated per row.
+         */
+        private final String sequence;
+
+        private CopyPlan(ObjEntity entity,
+                         DataNode node,
+                         String sql,
+                         List<Column> columns,
+                         List<PkSource> pkSources,
+                         String sequence) {
+            this.entity = entity;
+            this.node = node;
+            this.sql = sql;
+            this.columns = Collections.unmodifiableList(columns);
+            this.pkSources = pkSources;
+            this.sequence = sequence;
+        }
+
+        private Object pkValue(DataObject obj, PkSource source) throws Exception {
+            DbAttribute pk = source.pk;
+            ObjectId oid = obj.getObjectId();
+            if (oid != null && !oid.isTemporary()) {
+                return oid.getIdSnapshot().get(pk.getName());
+            }
+            Object value = null;
+            if (oid != null) {
+                // allocated for the chunk
+                value = oid.getReplacementIdMap().get(pk.getName());
+            }
+            if (value == null && source.attribute != null) {
+                value = obj.readPropertyDirectly(source.attribute);
+            }
+            if (value == null && source.master != null) {
+                value = fkValue(obj, source.master, source.masterColumn);
+                if (value == null) {
+                    throw new CayenneRuntimeException("Master object of relationship: %s.%s is not set",
+                                                      entity.getName(), source.master);
+                }
+            }
+            if (value == null) {
+                value = node.getAdapter().getPkGenerator().generatePk(node, pk);
+            }
+            if (oid != null) {
+                oid.getReplacementIdMap().put(pk.getName(), value);
+            }
+            return value;
+        }
+
+        /**
+         * True if the object needs a key generated by sequence.
+         */
+        private boolean needsGeneratedPk(DataObject obj) {
+            PkSource source = pkSources.get(0);
+            ObjectId oid = obj.getObjectId();
+            return source.master == null
+                   && oid != null && oid.isTemporary()
+                   && !oid.getReplacementIdMap().containsKey(source.pk.getName())
+                   && (source.attribute == null || obj.readPropertyDirectly(source.attribute) == null);
+        }
+
+        /**
+         * Allocates sequence keys for objects of the chunk by single query.
+         */
+        private void allocatePks(Connection con, List<DataObject> chunk) throws SQLException {
+            List<DataObject> targets = new ArrayList<>(chunk.size());
+            for (DataObject obj : chunk) {
+                if (needsGeneratedPk(obj)) {
+                    targets.add(obj);
+                }
+            }
+            if (targets.isEmpty()) {
+                return;
+            }
+            String pkName = pkSources.get(0).pk.getName();
+            try (PreparedStatement ps = con.prepareStatement("SELECT nextval(?::regclass) FROM generate_series(1, ?)")) {
+                ps.setString(1, sequence);
+                ps.setInt(2, targets.size());
+                try (ResultSet rs = ps.executeQuery()) {
+                    int i = 0;
+                    while (rs.next() && i < targets.size()) {
+                        targets.get(i++).getObjectId().getReplacementIdMap().put(pkName, rs.getLong(1));
+                    }
+                    if (i < targets.size()) {
+                        throw new SQLException("Sequence: " + sequence + " returned less keys than requested");
+                    }
+                }
+            }
+        }
+
+        private long copy(Connection con, Iterator<? extends Persistent> objects, int chunkSize)
+                throws SQLException, IOException {
+            List<DataObject> chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+            long count = 0;
+            while (objects.hasNext()) {
+                chunk.clear();
+                while (objects.hasNext() && chunk.size() < chunkSize) {
+                    chunk.add((DataObject) objects.next());
+                }
+                if (sequence != null) {
+                    allocatePks(con, chunk);
+                }
+                count += copyChunk(con, chunk);
+            }
+            return count;
+        }
+
+        private long copyChunk(Connection con, List<DataObject> chunk) throws SQLException, IOException {
+            CopyIn copyIn = con.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+            ValueCapture capture = new ValueCapture();
+            StringBuilder sb = new StringBuilder(BUFFER_SIZE + 1024);
+            long count = 0;
+            try {
+                for (DataObject obj : chunk) {
+                    int i = 0;
+                    for (Column c : columns) {
+                        if (i++ > 0) {
+                            sb.append('\t');
+                        }
+                        appendText(sb, c.encode(c.reader.read(obj, this), capture));
+                    }
+                    sb.append('\n');
+                    ++count;
+                    if (sb.length() >= BUFFER_SIZE) {
+                        write(copyIn, sb);
+                    }
+                }
+                if (sb.length() > 0) {
+                    write(copyIn, sb);
+                }
+                copyIn.endCopy();
+            } catch (SQLException | IOException | RuntimeException e) {
+                cancel(copyIn);
+                throw e;
+            } catch (Exception e) {
+                cancel(copyIn);
+                throw new CayenneRuntimeException("Failed to load objects of entity: %s", e, entity.getName());
+            }
+            return count;
+        }
+
+        private static void write(CopyIn copyIn, StringBuilder sb) throws SQLException {
+            byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(data, 0, data.length);
+            sb.setLength(0);
+        }
+
+        private static void cancel(CopyIn copyIn) {
+            try {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Appends value bound by extended type in COPY text format.
+     */
+    private static void appendText(StringBuilder sb, Object v) throws IOException, SQLException {
+        if (v == null) {
+            sb.append("\\N");
+        } else if (v instanceof Boolean) {
+            sb.append(((Boolean) v) ? 't' : 'f');
+        } else if (v instanceof byte[]) {
+            appendBytea(sb, (byte[]) v);
+        } else if (v instanceof PGobject) {
+            appendEscaped(sb, ((PGobject) v).getValue());
+        } else if (v instanceof InputStream) {
+            try (InputStream is = (InputStream) v) {
+                appendBytea(sb, readAll(is));
+            }
+        } else if (v instanceof Reader) {
+            try (Reader r = (Reader) v) {
+                StringBuilder text = new StringBuilder();
+                char[] buf = new char[4096];
+                int len;
+                while ((len = r.read(buf)) != -1) {
+                    text.append(buf, 0, len);
+                }
+                appendEscaped(sb, text);
+            }
+        } else {
+            appendEscaped(sb, v.toString());
+        }
+    }
+
+    private static void appendBytea(StringBuilder sb, byte[] data) {
+        final char[] hex = "0123456789abcdef".toCharArray();
+        sb.append("\\\\x");
+        for (byte b : data) {
+            sb.append(hex[(b >> 4) & 0xF]).append(hex[b & 0xF]);
+        }
+    }
+
+    private static void appendEscaped(StringBuilder sb, CharSequence s) {
+        if (s == null) {
+            sb.append("\\N");
+            return;
+        }
+        for (int i = 0, l = s.length(); i < l; ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = is.read(buf)) != -1) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Captures value bound to prepared statement by {@link ExtendedType#setJdbcObject}.
+     */
+    private static final class ValueCapture implements InvocationHandler {
+
+        private final PreparedStatement statement =
+                (PreparedStatement) Proxy.newProxyInstance(PgCopyBulkLoader.class.getClassLoader(),
+                                                           new Class<?>[]{PreparedStatement.class},
+                                                           this);
+
+        private Object value;
+
+        private Object take() {
+            Object v = value;
+            value = null;
+            return v;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2) {
+                value = "setNull".equals(name) ? null : args[1];
+                return null;
+            }
+            throw new UnsupportedOperationException("PreparedStatement." + name);
+        }
+    }
+}
@@ -1,39 +1,87 @@
 package com.softmotions.cayenne.spring;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServlet;
 import javax.sql.DataSource;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.apache.cayenne.ObjectContext;
 import org.apache.cayenne.configuration.rop.client.ClientRuntime;
 import org.apache.cayenne.configuration.rop.client.ClientRuntimeBuilder;
 import org.apache.cayenne.configuration.rop.server.ROPServerModule;
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.di.Key;
 import org.apache.cayenne.di.Module;
+import org.apache.cayenne.tx.TransactionFactory;
 import org.apache.commons.collections.CollectionUtils;
+import org.postgresql.PGConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.transaction.PlatformTransactionManager;
+import reactor.core.publisher.Flux;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.softmotions.cayenne.server.TypeCoercions;
+import com.softmotions.cayenne.server.modules.pg.PgCopyBulkLoader;
+import com.softmotions.cayenne.spring.server.batch.BatchCommitCustomizer;
+import com.softmotions.cayenne.spring.server.cache.CaffeineQueryCache;
+import com.softmotions.cayenne.spring.server.cache.EntityCacheInvalidator;
+import com.softmotions.cayenne.spring.server.cache.cluster.CacheInvalidationBridge;
+import com.softmotions.cayenne.spring.server.cache.cluster.InMemoryInvalidationTransport;
+import com.softmotions.cayenne.spring.server.cache.cluster.InvalidationTransport;
+import com.softmotions.cayenne.spring.server.cache.cluster.PgNotifyInvalidationTransport;
+import com.softmotions.cayenne.spring.server.metrics.CayenneChannelMetrics;
+import com.softmotions.cayenne.spring.server.metrics.CayenneMeterBinder;
+import com.softmotions.cayenne.spring.server.metrics.CayenneTransactionMetrics;
+import com.softmotions.cayenne.spring.server.pool.ObjectContextPool;
+import com.softmotions.cayenne.spring.server.prefetch.PrefetchAdvisor;
+import com.softmotions.cayenne.spring.server.prefetch.PrefetchAdvisorEndpoint;
+import com.softmotions.cayenne.spring.server.query.CayenneQueryStreamer;
+import com.softmotions.cayenne.spring.server.query.QueryBudgetDetector;
+import com.softmotions.cayenne.spring.server.query.SelectTranslationCache;
+import com.softmotions.cayenne.spring.server.reactive.ReactiveCayenne;
 import com.softmotions.cayenne.spring.server.rop.CayenneServerRopServlet;
+import com.softmotions.cayenne.spring.server.routing.ReplicaRoutingDataSource;
+import com.softmotions.cayenne.spring.server.routing.ReplicaRoutingFilter;
+import com.softmotions.cayenne.spring.server.shard.CayenneShard;
+import com.softmotions.cayenne.spring.server.shard.CayenneShardRegistry;
+import com.softmotions.cayenne.spring.server.shard.CayenneShardResolver;
+import com.softmotions.cayenne.spring.server.shard.HeaderShardResolver;
+import com.softmotions.cayenne.spring.server.shard.ShardRoutingTransactionManager;
+import com.softmotions.cayenne.spring.server.tx.CayenneTransactionListener;
 import com.softmotions.cayenne.spring.server.tx.CayenneTransactionManager;
+import com.softmotions.cayenne.spring.server.tx.ObjectContextHolderBinding;
+import com.softmotions.cayenne.spring.server.tx.SpringTransactionFactory;
 import com.softmotions.cayenne.utils.ExtBaseContext;
+import com.softmotions.cayenne.utils.ObjectContextHolder;
 
 /**
  * @author Adamansky Anton (adamansky@softmotions.com)
@@ -46,6 +94,20 @@ public class CayenneAutoConfiguration {
 
     private static final Logger log = LoggerFactory.getLogger(CayenneAutoConfiguration.class);
 
+    private static DataSource buildDataSource(CayenneServerProperties.Jdbc jdbc) {
+        DataSourceBuilder<?> b = DataSourceBuilder.create().url(jdbc.getUrl());
+        if (jdbc.getUsername() != null) {
+            b.username(jdbc.getUsername());
+        }
+        if (jdbc.getPassword() != null) {
+            b.password(jdbc.getPassword());
+        }
+        if (jdbc.getDriverClassName() != null) {
+            b.driverClassName(jdbc.getDriverClassName());
+        }
+        return b.build();
+    }
+
     @Configuration
     @EnableConfigurationProperties(CayenneClientProperties.class)
     @ConditionalOnProperty(prefix = "spring.cayenne.client", name = "url")
@@ -70,16 +132,16 @@ public class CayenneAutoConfiguration {
 
         @Bean
         @ConditionalOnMissingBean
+        @DependsOn("cayenneObjectContextHolderBinding")
         public ServerRuntime cayenneServerRuntime(DataSource dataSource,
                                                   CayenneServerProperties props,
                                                   ObjectProvider<List<CayenneServerRuntimeCustomizer>> cayenneCustomizers,
-                                                  ObjectProvider<List<Module>> cayenneModules) {
+                                                  TypeCoercions coercions,
+                                                  ObjectProvider<List<Module>> cayenneModules,
+                                                  ObjectProvider<ReplicaRoutingFilter> replicaRouting) {
             log.info("Creating the server cayenne runtime, configuration: {}", props.getConfig());
-            ServerRuntimeBuilder builder =
-                    ServerRuntime.builder()
-                                 .dataSource(dataSource)
-                                 .addConfig(props.getConfig());
-
+            dataSource = routedDataSource(dataSource, replicaRouting);
+            ServerRuntimeBuilder builder = newRuntimeBuilder(props.getConfig(), dataSource, props.getTx());
             List<Module> modules = cayenneModules.getIfAvailable();
             if (!CollectionUtils.isEmpty(modules)) {
                 modules.forEach(builder::addModule);
@@ -90,31 +152,150 @@ public class CayenneAutoConfiguration {
                     c.customize(builder);
                 }
             }
-            return builder.build();
+            ServerRuntime runtime = builder.build();
+            if (!CollectionUtils.isEmpty(customizers)) {
+                for (CayenneServerRuntimeCustomizer c : customizers) {
+                    c.customizeRuntime(runtime);
+                }
+            }
+            coercions.attach(runtime.getDataDomain().getEntityResolver());
+            return runtime;
+        }
+
+        /**
+         * Value coercions owned by the application runtimes.
+         */
+        @Bean
+        @ConditionalOnMissingBean
+        public TypeCoercions cayenneTypeCoercions(ObjectProvider<List<CayenneTypeCoercionCustomizer>> coercionCustomizers) {
+            TypeCoercions coercions = new TypeCoercions();
+            List<CayenneTypeCoercionCustomizer> ccs = coercionCustomizers.getIfAvailable();
+            if (!CollectionUtils.isEmpty(ccs)) {
+                for (CayenneTypeCoercionCustomizer c : ccs) {
+                    c.customize(coercions);
+                }
+            }
+            return coercions;
+        }
+
+        private static ServerRuntimeBuilder newRuntimeBuilder(String config,
+                                                              DataSource dataSource,
+                                                              CayenneServerProperties.Tx tx) {
+            ServerRuntimeBuilder builder = ServerRuntime.builder().addConfig(config);
+            if (tx.isShareConnection()) {
+                // Cayenne uses connection bound to Spring transaction
+                DataSource txDataSource = (dataSource instanceof DelegatingDataSource)
+                                          ? ((DelegatingDataSource) dataSource).getTargetDataSource()
+                                          : dataSource;
+                builder.dataSource(new TransactionAwareDataSourceProxy(txDataSource));
+                builder.addModule(binder -> {
+                    binder.bind(Key.get(DataSource.class, SpringTransactionFactory.DATA_SOURCE_KEY))
+                          .toInstance(txDataSource);
+                    binder.bind(TransactionFactory.class).to(SpringTransactionFactory.class);
+                });
+            } else {
+                builder.dataSource(dataSource);
+            }
+            return builder;
+        }
+
+        private static DataSource routedDataSource(DataSource dataSource,
+                                                   ObjectProvider<ReplicaRoutingFilter> replicaRouting) {
+            ReplicaRoutingFilter routing = replicaRouting.getIfAvailable();
+            return (routing != null) ? routing.getDataSource() : dataSource;
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ObjectContextHolder cayenneObjectContextHolder(CayenneServerProperties props) {
+            switch (props.getContextHolder()) {
+                case SCOPED:
+                    return ObjectContextHolder.scoped();
+                default:
+                    return ObjectContextHolder.threadLocal();
+            }
+        }
+
+        @Bean
+        public ObjectContextHolderBinding cayenneObjectContextHolderBinding(ObjectContextHolder contextHolder) {
+            return new ObjectContextHolderBinding(contextHolder);
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnProperty(prefix = "spring.cayenne.server.context-pool", name = "enabled", havingValue = "true")
+        public ObjectContextPool cayenneObjectContextPool(ServerRuntime runtime, CayenneServerProperties props) {
+            CayenneServerProperties.ContextPool cfg = props.getContextPool();
+            log.info("Creating object context pool, max size: {}", cfg.getMaxSize());
+            return new ObjectContextPool(runtime, cfg.getMaxSize());
         }
 
         @Bean
         @Primary
         public PlatformTransactionManager transactionManager(DataSource dataSource,
-                                                             ServerRuntime runtime) {
+                                                             ServerRuntime runtime,
+                                                             CayenneServerProperties props,
+                                                             ObjectContextHolder contextHolder,
+                                                             ObjectProvider<ObjectContextPool> contextPool,
+                                                             ObjectProvider<List<CayenneTransactionListener>> txListeners,
+                                                             ObjectProvider<ReplicaRoutingFilter> replicaRouting,
+                                                             ObjectProvider<CayenneShardRegistry> shardRegistry) {
             log.info("Creating CayenneTransactionManager instance");
-            return new CayenneTransactionManager(runtime, dataSource);
+            CayenneTransactionManager tm = newTransactionManager(runtime,
+                                                                 routedDataSource(dataSource, replicaRouting),
+                                                                 props.getTx());
+            tm.setContextHolder(contextHolder);
+            tm.setContextPool(contextPool.getIfAvailable());
+            List<CayenneTransactionListener> listeners = txListeners.getIfAvailable();
+            if (!CollectionUtils.isEmpty(listeners)) {
+                tm.setTransactionListeners(listeners);
+            }
+            CayenneShardRegistry shards = shardRegistry.getIfAvailable();
+            if (shards != null) {
+                log.info("Routing transactions to named runtimes: {}", shards.getShards());
+                return new ShardRoutingTransactionManager(tm, shards);
+            }
+            return tm;
+        }
+
+        private static CayenneTransactionManager newTransactionManager(ServerRuntime runtime,
+                                                                       DataSource dataSource,
+                                                                       CayenneServerProperties.Tx tx) {
+            CayenneTransactionManager tm = new CayenneTransactionManager(runtime, dataSource);
+            tm.setTrustPool(tx.isTrustPool());
+            tm.setPoolAutoCommit(tx.isPoolAutoCommit());
+            return tm;
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public CayenneQueryStreamer cayenneQueryStreamer(ServerRuntime runtime, CayenneServerProperties props) {
+            CayenneServerProperties.Streaming cfg = props.getStreaming();
+            return new CayenneQueryStreamer(runtime, cfg.getFetchSize(), cfg.getBatchSize());
         }
 
         @Bean
         @Primary
         @ConditionalOnMissingBean
-        public FactoryBean<ObjectContext> cayenneObjectContext(ServerRuntime cayenneRuntime) {
+        public FactoryBean<ObjectContext> cayenneObjectContext(ServerRuntime cayenneRuntime,
+                                                               ObjectProvider<ObjectContextPool> contextPool,
+                                                               ObjectProvider<CayenneShardRegistry> shardRegistry) {
+            ObjectContextPool pool = contextPool.getIfAvailable();
+            CayenneShardRegistry shards = shardRegistry.getIfAvailable();
             return new FactoryBean<ObjectContext>() {
 
                 @Override
                 public ObjectContext getObject() throws Exception {
+                    CayenneShard shard = (shards != null) ? shards.getCurrent() : null;
+                    if (shard != null) {
+                        return shard.getContext();
+                    }
                     ObjectContext octx = ExtBaseContext.getThreadObjectContextNull();
                     if (octx != null) {
                         return octx;
                     }
-                    octx = cayenneRuntime.newContext();
-                    ExtBaseContext.bindThreadObjectContext(octx);
+                    octx = (pool != null) ? pool.acquire() : cayenneRuntime.newContext();
+                    ExtBaseContext.bindObjectContext(octx);
                     return octx;
                 }
 
@@ -131,6 +312,292 @@ public class CayenneAutoConfiguration {
         }
     }
 
+    @Configuration
+    @ConditionalOnClass({ServerRuntime.class, Flux.class})
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.reactive", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayenneReactiveAutoConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ReactiveCayenne reactiveCayenne(ServerRuntime runtime, CayenneServerProperties props) {
+            CayenneServerProperties.Reactive cfg = props.getReactive();
+            log.info("Creating reactive Cayenne facade, pool size: {}", cfg.getPoolSize());
+            return new ReactiveCayenne(runtime, cfg.getPoolSize(), cfg.getBatchSize());
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass({ServerRuntime.class, MeterRegistry.class})
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.metrics", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayenneMetricsAutoConfiguration {
+
+        @Bean
+        public CayenneTransactionListener cayenneTransactionMetrics(MeterRegistry registry) {
+            log.info("Registering Cayenne transaction metrics");
+            return new CayenneTransactionMetrics(registry);
+        }
+
+        @Bean
+        public CayenneServerRuntimeCustomizer cayenneChannelMetrics(MeterRegistry registry) {
+            log.info("Registering Cayenne query and commit metrics");
+            return new CayenneChannelMetrics(registry);
+        }
+
+        @Bean
+        public CayenneMeterBinder cayenneMeterBinder(PlatformTransactionManager transactionManager,
+                                                     ObjectProvider<ObjectContextPool> contextPool) {
+            if (transactionManager instanceof ShardRoutingTransactionManager) {
+                transactionManager = ((ShardRoutingTransactionManager) transactionManager).getDefaultTransactionManager();
+            }
+            CayenneTransactionManager tm = (transactionManager instanceof CayenneTransactionManager)
+                                           ? (CayenneTransactionManager) transactionManager : null;
+            return new CayenneMeterBinder((tm != null) ? tm.getStatistics() : null, contextPool.getIfAvailable());
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(ServerRuntime.class)
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.query-budget", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayenneQueryBudgetAutoConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public QueryBudgetDetector cayenneQueryBudgetDetector(CayenneServerProperties props) {
+            log.info("Registering query budget detector");
+            return new QueryBudgetDetector(props.getQueryBudget());
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(ServerRuntime.class)
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.prefetch", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayennePrefetchAutoConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public PrefetchAdvisor cayennePrefetchAdvisor(CayenneServerProperties props) {
+            log.info("Registering adaptive prefetch advisor");
+            return new PrefetchAdvisor(props.getPrefetch());
+        }
+
+        @Configuration
+        @ConditionalOnClass(Endpoint.class)
+        static class CayennePrefetchEndpointConfiguration {
+
+            @Bean
+            @ConditionalOnMissingBean
+            public PrefetchAdvisorEndpoint cayennePrefetchAdvisorEndpoint(PrefetchAdvisor advisor) {
+                return new PrefetchAdvisorEndpoint(advisor);
+            }
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass({ServerRuntime.class, Caffeine.class})
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.cache", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayenneCacheAutoConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public CaffeineQueryCache cayenneQueryCache(CayenneServerProperties props) {
+            log.info("Registering Caffeine query cache, maximum weight: {}", props.getCache().getMaximumWeight());
+            return new CaffeineQueryCache(props.getCache());
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public EntityCacheInvalidator cayenneEntityCacheInvalidator(CayenneServerProperties props) {
+            return new EntityCacheInvalidator(props.getCache().getEntityGroups());
+        }
+
+        @Configuration
+        @ConditionalOnClass(MeterRegistry.class)
+        static class CayenneCacheMetricsConfiguration {
+
+            @Bean
+            public MeterBinder cayenneQueryCacheMetrics(CaffeineQueryCache cache) {
+                return registry -> CaffeineCacheMetrics.monitor(registry, cache.getNativeCache(), "cayenne.query");
+            }
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass({ServerRuntime.class, Caffeine.class})
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.translation-cache", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayenneTranslationCacheAutoConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public SelectTranslationCache cayenneSelectTranslationCache(CayenneServerProperties props) {
+            int maxEntries = props.getTranslationCache().getMaxEntries();
+            log.info("Registering select translation cache, max entries: {}", maxEntries);
+            return new SelectTranslationCache(maxEntries);
+        }
+
+        @Configuration
+        @ConditionalOnClass(MeterRegistry.class)
+        static class CayenneTranslationCacheMetricsConfiguration {
+
+            @Bean
+            public MeterBinder cayenneSelectTranslationCacheMetrics(SelectTranslationCache cache) {
+                return registry -> {
+                    FunctionCounter.builder("cayenne.translation.cache", cache, SelectTranslationCache::getHits)
+                                   .description("Select translations by cache result")
+                                   .tag("result", "hit")
+                                   .register(registry);
+                    FunctionCounter.builder("cayenne.translation.cache", cache, SelectTranslationCache::getMisses)
+                                   .description("Select translations by cache result")
+                                   .tag("result", "miss")
+                                   .register(registry);
+                    FunctionCounter.builder("cayenne.translation.cache", cache, SelectTranslationCache::getUncacheable)
+                                   .description("Select translations by cache result")
+                                   .tag("result", "uncacheable")
+                                   .register(registry);
+                    Gauge.builder("cayenne.translation.cache.size", cache, SelectTranslationCache::getSize)
+                         .description("Cached query shapes")
+                         .register(registry);
+                };
+            }
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(ServerRuntime.class)
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.invalidation", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayenneInvalidationAutoConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public InvalidationTransport cayenneInvalidationTransport(DataSource dataSource,
+                                                                  CayenneServerProperties props) {
+            CayenneServerProperties.Invalidation cfg = props.getInvalidation();
+            log.info("Creating {} invalidation transport, channel: {}", cfg.getTransport(), cfg.getChannel());
+            if (cfg.getTransport() == CayenneServerProperties.Invalidation.Transport.IN_MEMORY) {
+                return new InMemoryInvalidationTransport(cfg.getChannel());
+            }
+            return new PgNotifyInvalidationTransport(dataSource, cfg.getChannel(), cfg.getPollMillis());
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public CacheInvalidationBridge cayenneCacheInvalidationBridge(InvalidationTransport transport,
+                                                                      CayenneServerProperties props,
+                                                                      ObjectProvider<EntityCacheInvalidator> entityInvalidator) {
+            return new CacheInvalidationBridge(transport,
+                                               entityInvalidator.getIfAvailable(),
+                                               props.getInvalidation().getFlushIntervalMillis());
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(ServerRuntime.class)
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.replicas", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayenneReplicaAutoConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public ReplicaRoutingFilter cayenneReplicaRouting(DataSource dataSource, CayenneServerProperties props) {
+            CayenneServerProperties.Replicas cfg = props.getReplicas();
+            List<DataSource> replicas = new ArrayList<>();
+            for (CayenneServerProperties.Jdbc jdbc : cfg.getDatasources()) {
+                replicas.add(buildDataSource(jdbc));
+            }
+            log.info("Creating replica routing data source, replicas: {}, strategy: {}",
+                     replicas.size(), cfg.getStrategy());
+            return new ReplicaRoutingFilter(
+                    new ReplicaRoutingDataSource(dataSource, replicas, cfg.getStrategy(), cfg.getStickyMillis()));
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(ServerRuntime.class)
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.sharding", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayenneShardAutoConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public CayenneShardRegistry cayenneShardRegistry(CayenneServerProperties props,
+                                                         TypeCoercions coercions,
+                                                         ObjectProvider<List<Module>> cayenneModules) {
+            List<Module> modules = cayenneModules.getIfAvailable();
+            List<CayenneShard> shards = new ArrayList<>();
+            for (Map.Entry<String, CayenneServerProperties.NamedRuntime> e : props.getRuntimes().entrySet()) {
+                CayenneServerProperties.NamedRuntime cfg = e.getValue();
+                log.info("Creating the server cayenne runtime: {}, configuration: {}", e.getKey(), cfg.getConfig());
+                DataSource dataSource = buildDataSource(cfg.getDatasource());
+                ServerRuntimeBuilder builder =
+                        CayenneServerAutoConfiguration.newRuntimeBuilder(cfg.getConfig(), dataSource, props.getTx());
+                if (!CollectionUtils.isEmpty(modules)) {
+                    modules.forEach(builder::addModule);
+                }
+                ServerRuntime runtime = builder.build();
+                coercions.attach(runtime.getDataDomain().getEntityResolver());
+                CayenneTransactionManager tm =
+                        CayenneServerAutoConfiguration.newTransactionManager(runtime, dataSource, props.getTx());
+                tm.setContextHolder(ObjectContextHolder.separate());
+                shards.add(new CayenneShard(e.getKey(), runtime, dataSource, tm));
+            }
+            return new CayenneShardRegistry(shards);
+        }
+
+        @Configuration
+        @ConditionalOnClass(ServletRequest.class)
+        @ConditionalOnProperty(prefix = "spring.cayenne.server.sharding", name = "header")
+        static class CayenneShardResolverConfiguration {
+
+            @Bean
+            @ConditionalOnMissingBean
+            public CayenneShardResolver cayenneShardResolver(CayenneServerProperties props) {
+                log.warn("Resolving Cayenne runtimes by request header: {}, "
+                         + "the header must be set only by a trusted gateway", props.getSharding().getHeader());
+                return new HeaderShardResolver(props.getSharding().getHeader());
+            }
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass({ServerRuntime.class, PGConnection.class})
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.copy", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayennePgCopyAutoConfiguration {
+
+        /**
+         * Loader uses the same data source key as transaction manager binds connections to.
+         */
+        @Bean
+        @ConditionalOnMissingBean
+        public PgCopyBulkLoader cayennePgCopyBulkLoader(ServerRuntime runtime,
+                                                        DataSource dataSource,
+                                                        CayenneServerProperties props,
+                                                        ObjectProvider<ReplicaRoutingFilter> replicaRouting) {
+            return new PgCopyBulkLoader(runtime,
+                                        CayenneServerAutoConfiguration.routedDataSource(dataSource, replicaRouting),
+                                        props.getCopy().getChunkSize());
+        }
+    }
+
+    @Configuration
+    @ConditionalOnClass(ServerRuntime.class)
+    @ConditionalOnProperty(prefix = "spring.cayenne.server.batch", name = "enabled", havingValue = "true")
+    @Import(CayenneServerAutoConfiguration.class)
+    static class CayenneServerBatchAutoConfiguration {
+
+        @Bean
+        public CayenneServerRuntimeCustomizer cayenneBatchCommitCustomizer(CayenneServerProperties props) {
+            log.info("Registering batch commit customizer");
+            return new BatchCommitCustomizer(props.getBatch());
+        }
+    }
+
     @Configuration
     @ConditionalOnClass({ServerRuntime.class, HttpServlet.class, ServletRegistrationBean.class})
     @ConditionalOnProperty(prefix = "spring.cayenne.server.rop", name = "endpoint")
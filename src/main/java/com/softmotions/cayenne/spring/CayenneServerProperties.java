@@ -1,7 +1,10 @@
 package com.softmotions.cayenne.spring;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.hibernate.validator.constraints.NotEmpty;
@@ -9,6 +12,8 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.validation.annotation.Validated;
 
+import com.softmotions.cayenne.spring.server.routing.ReplicaRoutingDataSource;
+
 /**
  * @author Adamansky Anton (adamansky@softmotions.com)
  */
@@ -19,8 +24,46 @@ public class CayenneServerProperties implements InitializingBean, Serializable {
     @NotEmpty
     private String config;
 
+    /**
+     * Strategy of binding current object context.
+     */
+    private ContextHolder contextHolder = ContextHolder.THREAD_LOCAL;
+
     private Rop rop = new Rop();
 
+    private Tx tx = new Tx();
+
+    private Batch batch = new Batch();
+
+    private Streaming streaming = new Streaming();
+
+    private Copy copy = new Copy();
+
+    private Reactive reactive = new Reactive();
+
+    private ContextPool contextPool = new ContextPool();
+
+    private Metrics metrics = new Metrics();
+
+    private QueryBudget queryBudget = new QueryBudget();
+
+    private Prefetch prefetch = new Prefetch();
+
+    private Cache cache = new Cache();
+
+    private Invalidation invalidation = new Invalidation();
+
+    private Replicas replicas = new Replicas();
+
+    /**
+     * Additional named runtimes.
+     */
+    private Map<String, NamedRuntime> runtimes = new LinkedHashMap<>();
+
+    private Sharding sharding = new Sharding();
+
+    private TranslationCache translationCache = new TranslationCache();
+
     public String getConfig() {
         return config;
     }
@@ -29,6 +72,14 @@ public class CayenneServerProperties implements InitializingBean, Serializable {
         this.config = config;
     }
 
+    public ContextHolder getContextHolder() {
+        return contextHolder;
+    }
+
+    public void setContextHolder(ContextHolder contextHolder) {
+        this.contextHolder = contextHolder;
+    }
+
     public Rop getRop() {
         return rop;
     }
@@ -37,6 +88,137 @@ public class CayenneServerProperties implements InitializingBean, Serializable {
         this.rop = rop;
     }
 
+    public Tx getTx() {
+        return tx;
+    }
+
+    public void setTx(Tx tx) {
+        this.tx = tx;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public void setBatch(Batch batch) {
+        this.batch = batch;
+    }
+
+    public Streaming getStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(Streaming streaming) {
+        this.streaming = streaming;
+    }
+
+    public Copy getCopy() {
+        return copy;
+    }
+
+    public void setCopy(Copy copy) {
+        this.copy = copy;
+    }
+
+    public Reactive getReactive() {
+        return reactive;
+    }
+
+    public void setReactive(Reactive reactive) {
+        this.reactive = reactive;
+    }
+
+    public ContextPool getContextPool() {
+        return contextPool;
+    }
+
+    public void setContextPool(ContextPool contextPool) {
+        this.contextPool = contextPool;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public QueryBudget getQueryBudget() {
+        return queryBudget;
+    }
+
+    public void setQueryBudget(QueryBudget queryBudget) {
+        this.queryBudget = queryBudget;
+    }
+
+    public Prefetch getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(Prefetch prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    public Invalidation getInvalidation() {
+        return invalidation;
+    }
+
+    public void setInvalidation(Invalidation invalidation) {
+        this.invalidation = invalidation;
+    }
+
+    public Replicas getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(Replicas replicas) {
+        this.replicas = replicas;
+    }
+
+    public Map<String, NamedRuntime> getRuntimes() {
+        return runtimes;
+    }
+
+    public void setRuntimes(Map<String, NamedRuntime> runtimes) {
+        this.runtimes = runtimes;
+    }
+
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    public void setSharding(Sharding sharding) {
+        this.sharding = sharding;
+    }
+
+    public TranslationCache getTranslationCache() {
+        return translationCache;
+    }
+
+    public void setTranslationCache(TranslationCache translationCache) {
+        this.translationCache = translationCache;
+    }
+
+    public enum ContextHolder {
+        /**
+         * Cayenne thread local binding.
+         */
+        THREAD_LOCAL,
+        /**
+         * Explicit {@link com.softmotions.cayenne.utils.ObjectContextScope} binding.
+         */
+        SCOPED
+    }
+
     public static class Rop {
 
         private String endpoint;
@@ -61,6 +243,729 @@ public class CayenneServerProperties implements InitializingBean, Serializable {
         }
     }
 
+    public static class Tx {
+
+        /**
+         * If true transaction manager trusts connection state configured
+         * by connection pool and tracks it in connection holder instead
+         * of querying and resetting connection on every transaction.
+         */
+        private boolean trustPool;
+
+        /**
+         * Auto-commit mode of connections handed out by the pool.
+         * Used only if {@code trustPool} is enabled.
+         */
+        private boolean poolAutoCommit = true;
+
+        /**
+         * Cayenne queries and commits inside Spring transactions use
+         * the connection bound to the transaction. Disabled by default,
+         * Cayenne uses its own connections and transactions then.
+         */
+        private boolean shareConnection;
+
+        public boolean isTrustPool() {
+            return trustPool;
+        }
+
+        public void setTrustPool(boolean trustPool) {
+            this.trustPool = trustPool;
+        }
+
+        public boolean isPoolAutoCommit() {
+            return poolAutoCommit;
+        }
+
+        public void setPoolAutoCommit(boolean poolAutoCommit) {
+            this.poolAutoCommit = poolAutoCommit;
+        }
+
+        public boolean isShareConnection() {
+            return shareConnection;
+        }
+
+        public void setShareConnection(boolean shareConnection) {
+            this.shareConnection = shareConnection;
+        }
+    }
+
+    public static class Batch {
+
+        private boolean enabled;
+
+        /**
+         * Number of primary keys allocated by single PK generator round trip,
+         * {@code 0} keeps the value of database adapter.
+         * Before raising it {@code INCREMENT BY} of PK sequences must be altered to the same value,
+         * otherwise generated keys will collide.
+         */
+        private int pkCacheSize;
+
+        /**
+         * Enable pgjdbc {@code reWriteBatchedInserts} for PostgreSQL data sources.
+         */
+        private boolean rewriteBatchedInserts;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getPkCacheSize() {
+            return pkCacheSize;
+        }
+
+        public void setPkCacheSize(int pkCacheSize) {
+            this.pkCacheSize = pkCacheSize;
+        }
+
+        public boolean isRewriteBatchedInserts() {
+            return rewriteBatchedInserts;
+        }
+
+        public void setRewriteBatchedInserts(boolean rewriteBatchedInserts) {
+            this.rewriteBatchedInserts = rewriteBatchedInserts;
+        }
+    }
+
+    public static class Copy {
+
+        /**
+         * Enable PostgreSQL COPY bulk loader.
+         */
+        private boolean enabled;
+
+        /**
+         * Number of rows loaded by single COPY statement.
+         */
+        private int chunkSize = 10000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    public static class Streaming {
+
+        /**
+         * JDBC fetch size of streamed queries.
+         */
+        private int fetchSize = 1000;
+
+        /**
+         * Number of objects processed in one batch.
+         */
+        private int batchSize = 1000;
+
+        public int getFetchSize() {
+            return fetchSize;
+        }
+
+        public void setFetchSize(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    public static class Reactive {
+
+        /**
+         * Enable reactive Cayenne facade, requires Reactor.
+         */
+        private boolean enabled;
+
+        /**
+         * Number of threads executing blocking Cayenne queries,
+         * should not exceed the database connection pool size.
+         */
+        private int poolSize = 10;
+
+        /**
+         * Number of objects fetched and emitted in one batch.
+         */
+        private int batchSize = 256;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    public static class ContextPool {
+
+        /**
+         * Reuse object contexts released at the end of web requests
+         * and {@code REQUIRES_NEW} transactions.
+         */
+        private boolean enabled;
+
+        /**
+         * Maximum number of idle object contexts kept in the pool.
+         */
+        private int maxSize = 64;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    public static class Metrics {
+
+        /**
+         * Register Micrometer meters of transactions, commits and queries.
+         */
+        private boolean enabled;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    public static class QueryBudget {
+
+        /**
+         * Enable N+1 and slow query detector.
+         */
+        private boolean enabled;
+
+        /**
+         * Maximum number of queries per web request or transaction, zero means unlimited.
+         */
+        private int maxQueries = 100;
+
+        /**
+         * Number of repetitions of the same query shape in one scope reported as N+1 pattern.
+         */
+        private int repeatThreshold = 10;
+
+        /**
+         * Queries executed longer than this number of milliseconds are logged, zero disables logging.
+         */
+        private long slowQueryMillis;
+
+        /**
+         * Throw an exception instead of logging when query budget is exceeded, useful in tests.
+         */
+        private boolean fail;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxQueries() {
+            return maxQueries;
+        }
+
+        public void setMaxQueries(int maxQueries) {
+            this.maxQueries = maxQueries;
+        }
+
+        public int getRepeatThreshold() {
+            return repeatThreshold;
+        }
+
+        public void setRepeatThreshold(int repeatThreshold) {
+            this.repeatThreshold = repeatThreshold;
+        }
+
+        public long getSlowQueryMillis() {
+            return slowQueryMillis;
+        }
+
+        public void setSlowQueryMillis(long slowQueryMillis) {
+            this.slowQueryMillis = slowQueryMillis;
+        }
+
+        public boolean isFail() {
+            return fail;
+        }
+
+        public void setFail(boolean fail) {
+            this.fail = fail;
+        }
+    }
+
+    public static class Prefetch {
+
+        /**
+         * Learn relationship paths faulted after object select queries
+         * and prefetch them automatically.
+         */
+        private boolean enabled;
+
+        /**
+         * Number of executions of a query shape after which its faulted paths may be prefetched.
+         */
+        private int threshold = 20;
+
+        /**
+         * Minimal number of faults of a path per query execution for the path to be prefetched.
+         */
+        private double faultRatio = 0.5;
+
+        /**
+         * Maximum number of tracked query shapes.
+         */
+        private int maxShapes = 1000;
+
+        /**
+         * Maximum number of tracked paths per query shape.
+         */
+        private int maxPaths = 16;
+
+        /**
+         * Maximum length of learned paths.
+         */
+        private int maxDepth = 3;
+
+        /**
+         * Maximum number of objects tracked per object context.
+         */
+        private int maxTracked = 10000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        public void setThreshold(int threshold) {
+            this.threshold = threshold;
+        }
+
+        public double getFaultRatio() {
+            return faultRatio;
+        }
+
+        public void setFaultRatio(double faultRatio) {
+            this.faultRatio = faultRatio;
+        }
+
+        public int getMaxShapes() {
+            return maxShapes;
+        }
+
+        public void setMaxShapes(int maxShapes) {
+            this.maxShapes = maxShapes;
+        }
+
+        public int getMaxPaths() {
+            return maxPaths;
+        }
+
+        public void setMaxPaths(int maxPaths) {
+            this.maxPaths = maxPaths;
+        }
+
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        public void setMaxDepth(int maxDepth) {
+            this.maxDepth = maxDepth;
+        }
+
+        public int getMaxTracked() {
+            return maxTracked;
+        }
+
+        public void setMaxTracked(int maxTracked) {
+            this.maxTracked = maxTracked;
+        }
+    }
+
+    public static class Cache {
+
+        /**
+         * Use Caffeine query cache with entity based invalidation.
+         */
+        private boolean enabled;
+
+        /**
+         * Maximum total number of cached result objects.
+         */
+        private long maximumWeight = 100000;
+
+        /**
+         * Default time to live of cached query results in seconds.
+         */
+        private long ttlSeconds = 600;
+
+        /**
+         * Time to live of cached query results in seconds per cache group.
+         */
+        private Map<String, Long> groupTtlSeconds = new HashMap<>();
+
+        /**
+         * Cache groups invalidated on commits of the entity, in addition
+         * to groups named after the entity and its super entities.
+         */
+        private Map<String, List<String>> entityGroups = new HashMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaximumWeight() {
+            return maximumWeight;
+        }
+
+        public void setMaximumWeight(long maximumWeight) {
+            this.maximumWeight = maximumWeight;
+        }
+
+        public long getTtlSeconds() {
+            return ttlSeconds;
+        }
+
+        public void setTtlSeconds(long ttlSeconds) {
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        public Map<String, Long> getGroupTtlSeconds() {
+            return groupTtlSeconds;
+        }
+
+        public void setGroupTtlSeconds(Map<String, Long> groupTtlSeconds) {
+            this.groupTtlSeconds = groupTtlSeconds;
+        }
+
+        public Map<String, List<String>> getEntityGroups() {
+            return entityGroups;
+        }
+
+        public void setEntityGroups(Map<String, List<String>> entityGroups) {
+            this.entityGroups = entityGroups;
+        }
+    }
+
+    public static class Invalidation {
+
+        /**
+         * Propagate committed changes to other cluster nodes.
+         */
+        private boolean enabled;
+
+        private Transport transport = Transport.POSTGRES;
+
+        /**
+         * Notification channel name.
+         */
+        private String channel = "cayenne_invalidation";
+
+        /**
+         * Interval of publishing coalesced changes in milliseconds.
+         */
+        private long flushIntervalMillis = 50;
+
+        /**
+         * Timeout of waiting for notifications in milliseconds.
+         */
+        private int pollMillis = 500;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        public void setTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        public String getChannel() {
+            return channel;
+        }
+
+        public void setChannel(String channel) {
+            this.channel = channel;
+        }
+
+        public long getFlushIntervalMillis() {
+            return flushIntervalMillis;
+        }
+
+        public void setFlushIntervalMillis(long flushIntervalMillis) {
+            this.flushIntervalMillis = flushIntervalMillis;
+        }
+
+        public int getPollMillis() {
+            return pollMillis;
+        }
+
+        public void setPollMillis(int pollMillis) {
+            this.pollMillis = pollMillis;
+        }
+
+        public enum Transport {
+            /**
+             * PostgreSQL LISTEN/NOTIFY over the application data source.
+             */
+            POSTGRES,
+            /**
+             * In-memory transport delivering events within the JVM, for testing.
+             */
+            IN_MEMORY
+        }
+    }
+
+    public static class Replicas {
+
+        /**
+         * Route read only work to replica data sources.
+         */
+        private boolean enabled;
+
+        private ReplicaRoutingDataSource.Strategy strategy = ReplicaRoutingDataSource.Strategy.LEAST_ACTIVE;
+
+        /**
+         * Time in milliseconds thread sticks to the primary after write.
+         */
+        private long stickyMillis = 1000;
+
+        private List<Jdbc> datasources = new ArrayList<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public ReplicaRoutingDataSource.Strategy getStrategy() {
+            return strategy;
+        }
+
+        public void setStrategy(ReplicaRoutingDataSource.Strategy strategy) {
+            this.strategy = strategy;
+        }
+
+        public long getStickyMillis() {
+            return stickyMillis;
+        }
+
+        public void setStickyMillis(long stickyMillis) {
+            this.stickyMillis = stickyMillis;
+        }
+
+        public List<Jdbc> getDatasources() {
+            return datasources;
+        }
+
+        public void setDatasources(List<Jdbc> datasources) {
+            this.datasources = datasources;
+        }
+    }
+
+    public static class Sharding {
+
+        /**
+         * Resolve named runtime serving the request.
+         */
+        private boolean enabled;
+
+        /**
+         * Request header holding the runtime name. Header routing is disabled if not set,
+         * a {@link com.softmotions.cayenne.spring.server.shard.CayenneShardResolver} bean is required then.
+         * Clients may send any header value, so it is valid only behind a trusted gateway
+         * which overwrites the header.
+         */
+        private String header;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getHeader() {
+            return header;
+        }
+
+        public void setHeader(String header) {
+            this.header = header;
+        }
+    }
+
+    public static class NamedRuntime {
+
+        /**
+         * Cayenne project configuration of the runtime.
+         */
+        private String config;
+
+        private Jdbc datasource = new Jdbc();
+
+        public String getConfig() {
+            return config;
+        }
+
+        public void setConfig(String config) {
+            this.config = config;
+        }
+
+        public Jdbc getDatasource() {
+            return datasource;
+        }
+
+        public void setDatasource(Jdbc datasource) {
+            this.datasource = datasource;
+        }
+    }
+
+    public static class TranslationCache {
+
+        /**
+         * Cache SQL translation of select queries by query shape, requires Caffeine.
+         */
+        private boolean enabled;
+
+        /**
+         * Maximum number of cached query shapes, least recently used shapes are evicted.
+         */
+        private int maxEntries = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+    }
+
+    public static class Jdbc {
+
+        private String url;
+
+        private String username;
+
+        private String password;
+
+        private String driverClassName;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public String getDriverClassName() {
+            return driverClassName;
+        }
+
+        public void setDriverClassName(String driverClassName) {
+            this.driverClassName = driverClassName;
+        }
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
     }
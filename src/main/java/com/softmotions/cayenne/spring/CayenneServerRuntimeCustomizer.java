@@ -1,5 +1,6 @@
 package com.softmotions.cayenne.spring;
 
+import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
 
 /**
@@ -8,4 +9,10 @@ import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
 public interface CayenneServerRuntimeCustomizer {
 
     void customize(ServerRuntimeBuilder builder);
+
+    /**
+     * Called once server runtime is built.
+     */
+    default void customizeRuntime(ServerRuntime runtime) {
+    }
 }
@@ -2,16 +2,23 @@ package com.softmotions.cayenne.spring;
 
 import javax.servlet.ServletRequestEvent;
 import javax.servlet.ServletRequestListener;
+import javax.servlet.http.HttpServletRequest;
 
 import org.apache.cayenne.ObjectContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.softmotions.cayenne.spring.server.pool.ObjectContextPool;
+import com.softmotions.cayenne.spring.server.query.QueryBudgetDetector;
+import com.softmotions.cayenne.spring.server.shard.CayenneShard;
+import com.softmotions.cayenne.spring.server.shard.CayenneShardRegistry;
+import com.softmotions.cayenne.spring.server.shard.CayenneShardResolver;
 import com.softmotions.cayenne.utils.ExtBaseContext;
 
 /**
@@ -19,28 +26,61 @@ import com.softmotions.cayenne.utils.ExtBaseContext;
  */
 @Configuration
 @ConditionalOnClass({ServletRequestListener.class})
-@ConditionalOnProperty(prefix = "spring.data.cayenne.server", name = "config")
+@ConditionalOnProperty(prefix = "spring.cayenne.server", name = "config")
 @AutoConfigureAfter(CayenneAutoConfiguration.class)
 public class CayenneServerWebAutoConfiguration {
 
     private static final Logger log = LoggerFactory.getLogger(CayenneServerWebAutoConfiguration.class);
 
     @Bean
-    ServletRequestListener cayenneServletRequestListener() {
+    ServletRequestListener cayenneServletRequestListener(ObjectProvider<ObjectContextPool> contextPool,
+                                                         ObjectProvider<QueryBudgetDetector> queryBudget,
+                                                         ObjectProvider<CayenneShardRegistry> shardRegistry,
+                                                         ObjectProvider<CayenneShardResolver> shardResolver) {
         log.info("ServletRequestListener instantiated");
+        ObjectContextPool pool = contextPool.getIfAvailable();
+        QueryBudgetDetector detector = queryBudget.getIfAvailable();
+        CayenneShardRegistry shards = shardRegistry.getIfAvailable();
+        CayenneShardResolver resolver = (shards != null) ? shardResolver.getIfAvailable() : null;
         return new ServletRequestListener() {
 
             @Override
             public void requestDestroyed(ServletRequestEvent servletRequestEvent) {
+                if (detector != null) {
+                    detector.close(servletRequestEvent.getServletRequest());
+                }
+                if (shards != null) {
+                    for (CayenneShard shard : shards.getShards()) {
+                        ObjectContext octx = shard.getContextHolder().get();
+                        if (octx != null) {
+                            disposeOctx(octx);
+                            shard.getContextHolder().set(null);
+                        }
+                    }
+                    shards.setCurrent(null);
+                }
                 ObjectContext octx = ExtBaseContext.getThreadObjectContextNull();
                 if (octx != null) {
                     disposeOctx(octx);
-                    ExtBaseContext.bindThreadObjectContext(null);
+                    ExtBaseContext.bindObjectContext(null);
+                    if (pool != null) {
+                        pool.release(octx);
+                    }
                 }
             }
 
             @Override
             public void requestInitialized(ServletRequestEvent servletRequestEvent) {
+                if (resolver != null) {
+                    shards.setCurrent(resolver.resolve(servletRequestEvent.getServletRequest()));
+                }
+                if (detector != null) {
+                    Object req = servletRequestEvent.getServletRequest();
+                    String name = (req instanceof HttpServletRequest)
+                                  ? "request " + ((HttpServletRequest) req).getRequestURI()
+                                  : "request";
+                    detector.open(name, req);
+                }
             }
 
             private void disposeOctx(ObjectContext octx) {
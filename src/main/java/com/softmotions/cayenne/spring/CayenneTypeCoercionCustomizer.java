@@ -0,0 +1,14 @@
+package com.softmotions.cayenne.spring;
+
+import com.softmotions.cayenne.server.TypeCoercions;
+
+/**
+ * Registers application specific value coercions
+ * used by {@link com.softmotions.cayenne.server.DataObject} merge methods.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public interface CayenneTypeCoercionCustomizer {
+
+    void customize(TypeCoercions coercions);
+}
@@ -0,0 +1,89 @@
+package com.softmotions.cayenne.spring.server.batch;
+
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dba.JdbcAdapter;
+import org.apache.cayenne.dba.JdbcPkGenerator;
+import org.apache.cayenne.dba.PkGenerator;
+import org.postgresql.ds.common.BaseDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+
+import com.softmotions.cayenne.spring.CayenneServerProperties;
+import com.softmotions.cayenne.spring.CayenneServerRuntimeCustomizer;
+
+/**
+ * Tunes data nodes of server runtime for bulk commits:
+ * <ul>
+ * <li>JDBC batch execution of insert, update and delete queries.
+ * Cayenne groups commit operations by entity, so every entity
+ * is flushed by a single JDBC batch.</li>
+ * <li>Primary keys are allocated in blocks of {@code pkCacheSize} if it is set.
+ * PK sequences must be altered to {@code INCREMENT BY pkCacheSize} beforehand.</li>
+ * <li>Optional pgjdbc {@code reWriteBatchedInserts} which turns
+ * batched inserts into multi-row insert statements.</li>
+ * </ul>
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class BatchCommitCustomizer implements CayenneServerRuntimeCustomizer {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchCommitCustomizer.class);
+
+    private static final boolean pgjdbcPresent =
+            ClassUtils.isPresent("org.postgresql.ds.common.BaseDataSource",
+                                 BatchCommitCustomizer.class.getClassLoader());
+
+    private final CayenneServerProperties.Batch cfg;
+
+    public BatchCommitCustomizer(CayenneServerProperties.Batch cfg) {
+        this.cfg = cfg;
+    }
+
+    @Override
+    public void customize(ServerRuntimeBuilder builder) {
+    }
+
+    @Override
+    public void customizeRuntime(ServerRuntime runtime) {
+        for (DataNode node : runtime.getDataDomain().getDataNodes()) {
+            DbAdapter adapter = node.getAdapter().unwrap();
+            if (adapter instanceof JdbcAdapter && !adapter.supportsBatchUpdates()) {
+                log.info("Enabling JDBC batch updates for data node: {}", node.getName());
+                ((JdbcAdapter) adapter).setSupportsBatchUpdates(true);
+            }
+            PkGenerator pkg = adapter.getPkGenerator();
+            if (pkg instanceof JdbcPkGenerator && cfg.getPkCacheSize() > 0) {
+                log.info("Setting PK cache size: {} for data node: {}", cfg.getPkCacheSize(), node.getName());
+                ((JdbcPkGenerator) pkg).setPkCacheSize(cfg.getPkCacheSize());
+            }
+            if (cfg.isRewriteBatchedInserts()) {
+                enableRewriteBatchedInserts(node);
+            }
+        }
+    }
+
+    private void enableRewriteBatchedInserts(DataNode node) {
+        DataSource ds = node.getDataSource();
+        if (!pgjdbcPresent || ds == null) {
+            return;
+        }
+        try {
+            if (ds.isWrapperFor(BaseDataSource.class)) {
+                log.info("Enabling reWriteBatchedInserts for data node: {}", node.getName());
+                ds.unwrap(BaseDataSource.class).setReWriteBatchedInserts(true);
+            } else {
+                log.warn("Data source of data node: {} is not a pgjdbc data source, " +
+                         "set reWriteBatchedInserts=true in the pool configuration", node.getName());
+            }
+        } catch (SQLException e) {
+            log.warn("Unable to enable reWriteBatchedInserts for data node: {}", node.getName(), e);
+        }
+    }
+}
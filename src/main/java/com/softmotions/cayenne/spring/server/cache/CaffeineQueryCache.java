@@ -0,0 +1,246 @@
+package com.softmotions.cayenne.spring.server.cache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.cache.QueryCache;
+import org.apache.cayenne.cache.QueryCacheEntryFactory;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.query.QueryMetadata;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.softmotions.cayenne.spring.CayenneServerProperties;
+import com.softmotions.cayenne.spring.CayenneServerRuntimeCustomizer;
+
+/**
+ * Caffeine based Cayenne query cache.
+ * <p>
+ * Cache is bounded by total number of cached result objects,
+ * every entry expires after TTL configured for its cache group.
+ * Entries are stamped with generation of their cache group, {@link #removeGroup(String)}
+ * advances the generation so entries put concurrently with group removal
+ * or missed by the group index are never returned.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+@SuppressWarnings("rawtypes")
+public class CaffeineQueryCache implements QueryCache, CayenneServerRuntimeCustomizer {
+
+    private final Cache<String, Entry> cache;
+
+    /**
+     * Cache group to keys of cache entries.
+     */
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+
+    private final long defaultTtlNanos;
+
+    private final Map<String, Long> groupTtlNanos = new ConcurrentHashMap<>();
+
+    public CaffeineQueryCache(CayenneServerProperties.Cache cfg) {
+        this.defaultTtlNanos = TimeUnit.SECONDS.toNanos(cfg.getTtlSeconds());
+        cfg.getGroupTtlSeconds().forEach((g, ttl) -> groupTtlNanos.put(g, TimeUnit.SECONDS.toNanos(ttl)));
+        this.cache = Caffeine.newBuilder()
+                             .maximumWeight(cfg.getMaximumWeight())
+                             .weigher((String k, Entry e) -> e.weight)
+                             .expireAfter(new GroupExpiry())
+                             .removalListener((String k, Entry e, RemovalCause c) -> {
+                                 if (k != null && e != null) {
+                                     unindex(k, e);
+                                 }
+                             })
+                             .recordStats()
+                             .build();
+    }
+
+    /**
+     * Underlying Caffeine cache, may be used to bind cache metrics.
+     */
+    public Cache<String, ?> getNativeCache() {
+        return cache;
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void customize(ServerRuntimeBuilder builder) {
+        builder.addModule(binder -> binder.bind(QueryCache.class).toInstance(this));
+    }
+
+    @Override
+    public List get(QueryMetadata metadata) {
+        String key = metadata.getCacheKey();
+        if (key == null) {
+            return null;
+        }
+        Entry e = cache.getIfPresent(key);
+        if (e == null) {
+            return null;
+        }
+        if (e.group != null && e.generation != group(e.group).generation.get()) {
+            cache.asMap().remove(key, e);
+            return null;
+        }
+        return e.results;
+    }
+
+    @Override
+    public List get(QueryMetadata metadata, QueryCacheEntryFactory factory) {
+        List result = get(metadata);
+        if (result == null) {
+            String key = metadata.getCacheKey();
+            String group = metadata.getCacheGroup();
+            // generation is taken before the query is executed
+            long generation = (group != null) ? group(group).generation.get() : 0L;
+            Object newObject = factory.createObject();
+            if (!(newObject instanceof List)) {
+                if (newObject == null) {
+                    throw new CayenneRuntimeException("Null object created: %s", metadata.getCacheKey());
+                } else {
+                    throw new CayenneRuntimeException("Invalid query result, expected List, got %s",
+                                                      newObject.getClass().getName());
+                }
+            }
+            result = (List) newObject;
+            if (key != null) {
+                put(key, group, generation, result);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void put(QueryMetadata metadata, List results) {
+        String key = metadata.getCacheKey();
+        if (key == null) {
+            return;
+        }
+        String group = metadata.getCacheGroup();
+        put(key, group, (group != null) ? group(group).generation.get() : 0L, results);
+    }
+
+    private void put(String key, String group, long generation, List results) {
+        if (group != null) {
+            group(group).keys.add(key);
+        }
+        cache.put(key, new Entry(results, group, generation));
+    }
+
+    @Override
+    public void removeGroup(String groupKey) {
+        Group g = groups.get(groupKey);
+        if (g == null) {
+            return;
+        }
+        g.generation.incrementAndGet();
+        for (String key : g.keys) {
+            g.keys.remove(key);
+            cache.invalidate(key);
+        }
+    }
+
+    @Override
+    public void removeGroup(String groupKey, Class<?> keyType, Class<?> valueType) {
+        removeGroup(groupKey);
+    }
+
+    @Override
+    public void clear() {
+        for (Group g : groups.values()) {
+            g.generation.incrementAndGet();
+            g.keys.clear();
+        }
+        cache.invalidateAll();
+    }
+
+    public void remove(String key) {
+        if (key != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    public int size() {
+        return (int) cache.estimatedSize();
+    }
+
+    private void unindex(String key, Entry e) {
+        if (e.group == null) {
+            return;
+        }
+        // not counted in cache statistics unlike getIfPresent()
+        Entry current = cache.asMap().get(key);
+        if (current != null && e.group.equals(current.group)) {
+            return;
+        }
+        Group g = groups.get(e.group);
+        if (g != null) {
+            g.keys.remove(key);
+        }
+    }
+
+    /**
+     * Groups are kept for the cache lifetime to preserve their generations.
+     */
+    private Group group(String name) {
+        return groups.computeIfAbsent(name, n -> new Group());
+    }
+
+    private final class GroupExpiry implements Expiry<String, Entry> {
+
+        @Override
+        public long expireAfterCreate(String key, Entry value, long currentTime) {
+            if (value.group == null) {
+                return defaultTtlNanos;
+            }
+            Long ttl = groupTtlNanos.get(value.group);
+            return (ttl != null) ? ttl : defaultTtlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Entry value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Entry value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    private static final class Group {
+
+        final AtomicLong generation = new AtomicLong();
+
+        final Set<String> keys = ConcurrentHashMap.newKeySet();
+    }
+
+    private static final class Entry {
+
+        final List results;
+
+        final String group;
+
+        final long generation;
+
+        final int weight;
+
+        private Entry(List results, String group, long generation) {
+            this.results = results;
+            this.group = group;
+            this.generation = generation;
+            this.weight = (results != null) ? results.size() + 1 : 1;
+        }
+    }
+}
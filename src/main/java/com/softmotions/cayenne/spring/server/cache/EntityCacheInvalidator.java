@@ -0,0 +1,185 @@
+package com.softmotions.cayenne.spring.server.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.cache.QueryCache;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.softmotions.cayenne.spring.CayenneServerRuntimeCustomizer;
+
+/**
+ * Invalidates query cache groups of entities changed by commits.
+ * <p>
+ * Cache groups of an entity are the entity name, names of its super entities
+ * and groups configured for these entities. Groups are invalidated right after
+ * object context flush and, if flush was performed in a Spring transaction,
+ * once again after transaction commit, so results cached by concurrent
+ * transactions before commit are discarded too.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class EntityCacheInvalidator implements DataChannelFilter,
+                                               CayenneServerRuntimeCustomizer {
+
+    private static final Logger log = LoggerFactory.getLogger(EntityCacheInvalidator.class);
+
+    private final Map<String, List<String>> entityGroups;
+
+    private final ConcurrentMap<String, String[]> groupsCache = new ConcurrentHashMap<>();
+
+    private QueryCache queryCache;
+
+    private EntityResolver entityResolver;
+
+    /**
+     * @param entityGroups Additional cache groups per entity name
+     */
+    public EntityCacheInvalidator(Map<String, List<String>> entityGroups) {
+        this.entityGroups = entityGroups;
+    }
+
+    @Override
+    public void customize(ServerRuntimeBuilder builder) {
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void customizeRuntime(ServerRuntime runtime) {
+        queryCache = runtime.getInjector().getInstance(QueryCache.class);
+        runtime.getDataDomain().addFilter(this);
+    }
+
+    @Override
+    public void init(DataChannel channel) {
+        entityResolver = channel.getEntityResolver();
+    }
+
+    @Override
+    public QueryResponse onQuery(ObjectContext originatingContext, Query query, DataChannelFilterChain filterChain) {
+        return filterChain.onQuery(originatingContext, query);
+    }
+
+    @Override
+    public GraphDiff onSync(ObjectContext originatingContext,
+                            GraphDiff changes,
+                            int syncType,
+                            DataChannelFilterChain filterChain) {
+        if (syncType == DataChannel.ROLLBACK_CASCADE_SYNC || originatingContext == null) {
+            return filterChain.onSync(originatingContext, changes, syncType);
+        }
+        Set<String> entities = new HashSet<>();
+        collect(originatingContext.newObjects(), entities);
+        collect(originatingContext.modifiedObjects(), entities);
+        collect(originatingContext.deletedObjects(), entities);
+        GraphDiff res = filterChain.onSync(originatingContext, changes, syncType);
+        if (!entities.isEmpty()) {
+            invalidateEntities(entities);
+            if (TransactionSynchronizationManager.isActualTransactionActive()
+                && TransactionSynchronizationManager.isSynchronizationActive()) {
+                txSynchronization().entities.addAll(entities);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Synchronization of the current Spring transaction registered by this invalidator.
+     */
+    private TxSynchronization txSynchronization() {
+        for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+            if (s instanceof TxSynchronization && ((TxSynchronization) s).invalidator() == this) {
+                return (TxSynchronization) s;
+            }
+        }
+        TxSynchronization s = new TxSynchronization();
+        TransactionSynchronizationManager.registerSynchronization(s);
+        return s;
+    }
+
+    /**
+     * Invalidates query cache groups of the given entities.
+     */
+    public void invalidateEntities(Collection<String> entities) {
+        QueryCache cache = queryCache;
+        if (cache == null) {
+            return;
+        }
+        for (String entity : entities) {
+            for (String group : groupsCache.computeIfAbsent(entity, this::groupsOf)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Invalidating cache group: {}", group);
+                }
+                cache.removeGroup(group);
+            }
+        }
+    }
+
+    private String[] groupsOf(String entityName) {
+        Set<String> groups = new HashSet<>();
+        ObjEntity entity = (entityResolver != null) ? entityResolver.getObjEntity(entityName) : null;
+        List<String> names = new ArrayList<>();
+        names.add(entityName);
+        while (entity != null) {
+            entity = entity.getSuperEntity();
+            if (entity != null) {
+                names.add(entity.getName());
+            }
+        }
+        for (String name : names) {
+            groups.add(name);
+            List<String> extra = entityGroups.get(name);
+            if (extra != null) {
+                groups.addAll(extra);
+            }
+        }
+        return groups.toArray(new String[0]);
+    }
+
+    /**
+     * Invalidates entities changed in a Spring transaction after its commit.
+     */
+    private final class TxSynchronization extends TransactionSynchronizationAdapter {
+
+        private final Set<String> entities = new HashSet<>();
+
+        private EntityCacheInvalidator invalidator() {
+            return EntityCacheInvalidator.this;
+        }
+
+        @Override
+        public void afterCommit() {
+            invalidateEntities(entities);
+        }
+    }
+
+    private static void collect(Collection<?> objects, Set<String> entities) {
+        for (Object o : objects) {
+            if (o instanceof Persistent) {
+                entities.add(((Persistent) o).getObjectId().getEntityName());
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.softmotions.cayenne.spring.server.cache.cluster;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.access.DataDomain;
+import org.apache.cayenne.access.DataRowStore;
+import org.apache.cayenne.cache.QueryCache;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.softmotions.cayenne.spring.CayenneServerRuntimeCustomizer;
+import com.softmotions.cayenne.spring.server.cache.EntityCacheInvalidator;
+
+/**
+ * Propagates committed changes to other cluster nodes.
+ * <p>
+ * Ids of modified and deleted objects and names of changed entities are collected
+ * on commit and, after the Spring transaction (if any) is committed, queued for
+ * publishing. Changes of a Spring transaction are collected by its
+ * {@link TransactionSynchronization} and queued in {@code afterCommit}.
+ * Queued changes are coalesced into one event published every
+ * {@code flushIntervalMillis} by {@link InvalidationTransport}.
+ * <p>
+ * Events received from other nodes evict object snapshots from the shared snapshot
+ * cache and invalidate query cache groups of changed entities.
+ * If the transport may have lost events, both caches are cleared.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class CacheInvalidationBridge implements DataChannelFilter,
+                                                CayenneServerRuntimeCustomizer,
+                                                DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheInvalidationBridge.class);
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final InvalidationTransport transport;
+
+    private final EntityCacheInvalidator entityInvalidator;
+
+    private final long flushIntervalMillis;
+
+    private final Object lock = new Object();
+
+    private InvalidationEvent pending = new InvalidationEvent(nodeId);
+
+    private ScheduledExecutorService flusher;
+
+    private DataDomain domain;
+
+    private QueryCache queryCache;
+
+    /**
+     * @param entityInvalidator Invalidator of entity cache groups, may be null
+     */
+    public CacheInvalidationBridge(InvalidationTransport transport,
+                                   EntityCacheInvalidator entityInvalidator,
+                                   long flushIntervalMillis) {
+        this.transport = transport;
+        this.entityInvalidator = entityInvalidator;
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void customize(ServerRuntimeBuilder builder) {
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void customizeRuntime(ServerRuntime runtime) {
+        domain = runtime.getDataDomain();
+        queryCache = runtime.getInjector().getInstance(QueryCache.class);
+        domain.addFilter(this);
+        transport.start(this::receive, this::resync);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cayenne-invalidation-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void init(DataChannel channel) {
+    }
+
+    @Override
+    public QueryResponse onQuery(ObjectContext originatingContext, Query query, DataChannelFilterChain filterChain) {
+        return filterChain.onQuery(originatingContext, query);
+    }
+
+    @Override
+    public GraphDiff onSync(ObjectContext originatingContext,
+                            GraphDiff changes,
+                            int syncType,
+                            DataChannelFilterChain filterChain) {
+        if (syncType == DataChannel.ROLLBACK_CASCADE_SYNC || originatingContext == null) {
+            return filterChain.onSync(originatingContext, changes, syncType);
+        }
+        InvalidationEvent event = new InvalidationEvent(nodeId);
+        for (Object o : originatingContext.newObjects()) {
+            if (o instanceof Persistent) {
+                event.addEntity(((Persistent) o).getObjectId().getEntityName());
+            }
+        }
+        addObjectIds(originatingContext.modifiedObjects(), event);
+        addObjectIds(originatingContext.deletedObjects(), event);
+        GraphDiff res = filterChain.onSync(originatingContext, changes, syncType);
+        if (event.isEmpty()) {
+            return res;
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+            && TransactionSynchronizationManager.isSynchronizationActive()) {
+            txSynchronization().event.merge(event);
+        } else {
+            enqueue(event);
+        }
+        return res;
+    }
+
+    /**
+     * Synchronization of the current Spring transaction registered by this bridge.
+     */
+    private TxSynchronization txSynchronization() {
+        for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+            if (s instanceof TxSynchronization && ((TxSynchronization) s).bridge() == this) {
+                return (TxSynchronization) s;
+            }
+        }
+        TxSynchronization s = new TxSynchronization();
+        TransactionSynchronizationManager.registerSynchronization(s);
+        return s;
+    }
+
+    private static void addObjectIds(Collection<?> objects, InvalidationEvent event) {
+        for (Object o : objects) {
+            if (o instanceof Persistent) {
+                event.addObjectId(((Persistent) o).getObjectId());
+            }
+        }
+    }
+
+    private void enqueue(InvalidationEvent event) {
+        synchronized (lock) {
+            pending.merge(event);
+        }
+    }
+
+    /**
+     * Publishes queued changes.
+     */
+    public void flush() {
+        InvalidationEvent event;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            event = pending;
+            pending = new InvalidationEvent(nodeId);
+        }
+        try {
+            transport.publish(event);
+        } catch (RuntimeException e) {
+            log.error("Failed to publish {}", event, e);
+        }
+    }
+
+    /**
+     * Clears shared snapshot cache and query cache
+     * since events of other nodes may have been lost.
+     */
+    public void resync() {
+        if (domain == null) {
+            return;
+        }
+        log.warn("Invalidation events may have been lost, clearing caches");
+        clearCaches();
+    }
+
+    private void clearCaches() {
+        DataRowStore store = domain.getSharedSnapshotCache();
+        if (store != null) {
+            store.clear();
+        }
+        if (queryCache != null) {
+            queryCache.clear();
+        }
+    }
+
+    /**
+     * Applies event received from other node.
+     */
+    public void receive(InvalidationEvent event) {
+        if (nodeId.equals(event.getOrigin()) || domain == null) {
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Received {}", event);
+        }
+        if (event.isClearAll()) {
+            log.warn("Node: {} may have lost invalidation events, clearing caches", event.getOrigin());
+            clearCaches();
+            return;
+        }
+        DataRowStore store = domain.getSharedSnapshotCache();
+        if (store != null) {
+            if (!event.getClearedEntities().isEmpty()) {
+                store.clear();
+            } else if (!event.getObjectIds().isEmpty()) {
+                store.processSnapshotChanges(this,
+                                             Collections.emptyMap(),
+                                             Collections.emptyList(),
+                                             event.getObjectIds(),
+                                             Collections.emptyList());
+            }
+        }
+        if (entityInvalidator != null) {
+            entityInvalidator.invalidateEntities(event.getEntities());
+        } else if (queryCache != null) {
+            for (String entity : event.getEntities()) {
+                queryCache.removeGroup(entity);
+            }
+        }
+    }
+
+    /**
+     * Collects changes of a Spring transaction and queues them after commit.
+     */
+    private final class TxSynchronization extends TransactionSynchronizationAdapter {
+
+        private final InvalidationEvent event = new InvalidationEvent(nodeId);
+
+        private CacheInvalidationBridge bridge() {
+            return CacheInvalidationBridge.this;
+        }
+
+        @Override
+        public void afterCommit() {
+            if (!event.isEmpty()) {
+                enqueue(event);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flush();
+        }
+        transport.close();
+    }
+}
@@ -0,0 +1,50 @@
+package com.softmotions.cayenne.spring.server.cache.cluster;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivers invalidation events to all transports of the same channel
+ * within the JVM. Intended for local testing of several runtimes.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class InMemoryInvalidationTransport implements InvalidationTransport {
+
+    private static final Map<String, List<Consumer<InvalidationEvent>>> CHANNELS = new ConcurrentHashMap<>();
+
+    private final String channel;
+
+    private Consumer<InvalidationEvent> receiver;
+
+    public InMemoryInvalidationTransport(String channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void start(Consumer<InvalidationEvent> receiver, Runnable resync) {
+        this.receiver = receiver;
+        CHANNELS.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(receiver);
+    }
+
+    @Override
+    public void publish(InvalidationEvent event) {
+        List<Consumer<InvalidationEvent>> receivers = CHANNELS.get(channel);
+        if (receivers != null) {
+            for (Consumer<InvalidationEvent> r : receivers) {
+                r.accept(event);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        List<Consumer<InvalidationEvent>> receivers = CHANNELS.get(channel);
+        if (receivers != null && receiver != null) {
+            receivers.remove(receiver);
+        }
+    }
+}
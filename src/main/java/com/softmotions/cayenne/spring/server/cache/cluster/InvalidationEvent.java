@@ -0,0 +1,238 @@
+package com.softmotions.cayenne.spring.server.cache.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cayenne.ObjectId;
+
+/**
+ * Changes committed on a cluster node: entities to invalidate query cache groups of
+ * and object ids to evict snapshots of. Entities with object ids not representable
+ * in the event have all their snapshots evicted. Event marked as clear-all
+ * tells receivers to clear all their caches, it is published when other events
+ * of the node may have been lost.
+ * <p>
+ * Text form of the event:
+ * <pre>
+ * origin
+ * E entity
+ * C entity
+ * I entity key type value
+ * A *
+ * </pre>
+ * where type is {@code L} (Long), {@code I} (Integer) or {@code S} (String),
+ * {@code A} marks clear-all event. Ids which do not fit into a payload
+ * are sent as {@code C} lines of their entities.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public final class InvalidationEvent {
+
+    private final String origin;
+
+    private final Set<String> entities = new LinkedHashSet<>();
+
+    private final Set<String> clearedEntities = new LinkedHashSet<>();
+
+    private final Set<ObjectId> objectIds = new LinkedHashSet<>();
+
+    private boolean clearAll;
+
+    public InvalidationEvent(String origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * Event telling receivers to clear all their caches.
+     */
+    public static InvalidationEvent clearAll(String origin) {
+        InvalidationEvent event = new InvalidationEvent(origin);
+        event.clearAll = true;
+        return event;
+    }
+
+    /**
+     * Identifier of the node published this event.
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    public Set<String> getEntities() {
+        return Collections.unmodifiableSet(entities);
+    }
+
+    /**
+     * Entities all snapshots of which should be evicted.
+     */
+    public Set<String> getClearedEntities() {
+        return Collections.unmodifiableSet(clearedEntities);
+    }
+
+    public Set<ObjectId> getObjectIds() {
+        return Collections.unmodifiableSet(objectIds);
+    }
+
+    public boolean isClearAll() {
+        return clearAll;
+    }
+
+    public boolean isEmpty() {
+        return !clearAll && entities.isEmpty() && clearedEntities.isEmpty() && objectIds.isEmpty();
+    }
+
+    public void addEntity(String entity) {
+        entities.add(entity);
+    }
+
+    public void addObjectId(ObjectId oid) {
+        entities.add(oid.getEntityName());
+        if (oid.isTemporary()) {
+            return;
+        }
+        if (encodable(oid)) {
+            objectIds.add(oid);
+        } else {
+            clearedEntities.add(oid.getEntityName());
+        }
+    }
+
+    /**
+     * Merges changes of the other event into this one.
+     */
+    public void merge(InvalidationEvent other) {
+        clearAll |= other.clearAll;
+        entities.addAll(other.entities);
+        clearedEntities.addAll(other.clearedEntities);
+        objectIds.addAll(other.objectIds);
+    }
+
+    /**
+     * Encodes event into text payloads not exceeding given number of bytes each.
+     */
+    public List<String> encode(int maxBytes) {
+        int osize = bytes(origin);
+        List<String> lines = new ArrayList<>();
+        if (clearAll) {
+            lines.add("A *");
+        }
+        for (String e : entities) {
+            lines.add("E " + e);
+        }
+        Set<String> cleared = new LinkedHashSet<>(clearedEntities);
+        List<String> idLines = new ArrayList<>(objectIds.size());
+        for (ObjectId oid : objectIds) {
+            Map.Entry<String, Object> id = oid.getIdSnapshot().entrySet().iterator().next();
+            Object v = id.getValue();
+            char type = (v instanceof Long) ? 'L' : (v instanceof Integer) ? 'I' : 'S';
+            String line = "I " + oid.getEntityName() + ' ' + id.getKey() + ' ' + type + ' ' + v;
+            if (osize + bytes(line) + 1 > maxBytes) {
+                // id does not fit into a payload, all snapshots of its entity are evicted
+                cleared.add(oid.getEntityName());
+            } else {
+                idLines.add(line);
+            }
+        }
+        for (String e : cleared) {
+            lines.add("C " + e);
+        }
+        lines.addAll(idLines);
+        List<String> payloads = new ArrayList<>();
+        StringBuilder sb = new StringBuilder(origin);
+        int size = osize;
+        boolean empty = true;
+        for (String line : lines) {
+            int lsize = bytes(line) + 1;
+            if (!empty && size + lsize > maxBytes) {
+                payloads.add(sb.toString());
+                sb = new StringBuilder(origin);
+                size = osize;
+            }
+            sb.append('\n').append(line);
+            size += lsize;
+            empty = false;
+        }
+        if (!empty) {
+            payloads.add(sb.toString());
+        }
+        return payloads;
+    }
+
+    /**
+     * Decodes event from the text payload.
+     */
+    public static InvalidationEvent decode(String payload) {
+        String[] lines = payload.split("\n");
+        InvalidationEvent event = new InvalidationEvent(lines[0]);
+        for (int i = 1; i < lines.length; ++i) {
+            String line = lines[i];
+            if (line.length() < 3) {
+                continue;
+            }
+            switch (line.charAt(0)) {
+                case 'A':
+                    event.clearAll = true;
+                    break;
+                case 'E':
+                    event.entities.add(line.substring(2));
+                    break;
+                case 'C':
+                    event.clearedEntities.add(line.substring(2));
+                    break;
+                case 'I': {
+                    String[] parts = line.split(" ", 5);
+                    if (parts.length < 5) {
+                        continue;
+                    }
+                    Object value;
+                    switch (parts[3]) {
+                        case "L":
+                            value = Long.valueOf(parts[4]);
+                            break;
+                        case "I":
+                            value = Integer.valueOf(parts[4]);
+                            break;
+                        default:
+                            value = parts[4];
+                    }
+                    event.objectIds.add(new ObjectId(parts[1], parts[2], value));
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+        return event;
+    }
+
+    private static boolean encodable(ObjectId oid) {
+        Map<String, Object> id = oid.getIdSnapshot();
+        if (id.size() != 1) {
+            return false;
+        }
+        Object v = id.values().iterator().next();
+        return v instanceof Long
+               || v instanceof Integer
+               || (v instanceof String && ((String) v).indexOf('\n') == -1);
+    }
+
+    private static int bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Override
+    public String toString() {
+        return "InvalidationEvent{" +
+               "origin='" + origin + '\'' +
+               ", clearAll=" + clearAll +
+               ", entities=" + entities +
+               ", clearedEntities=" + clearedEntities +
+               ", objectIds=" + objectIds.size() +
+               '}';
+    }
+}
@@ -0,0 +1,25 @@
+package com.softmotions.cayenne.spring.server.cache.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Transport of invalidation events between cluster nodes.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public interface InvalidationTransport extends AutoCloseable {
+
+    /**
+     * Starts receiving events from other nodes.
+     * Events published by this node may be delivered too.
+     *
+     * @param resync Called when events may have been lost,
+     *               for example after reconnect of the listener
+     */
+    void start(Consumer<InvalidationEvent> receiver, Runnable resync);
+
+    void publish(InvalidationEvent event);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,196 @@
+package com.softmotions.cayenne.spring.server.cache.cluster;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PostgreSQL {@code LISTEN/NOTIFY} invalidation transport.
+ * <p>
+ * One connection of the data source is held permanently by the listener thread.
+ * Notifications sent while the listener reconnects are lost,
+ * so the receiver is asked to resync after every reconnect.
+ * Events are published by {@code pg_notify()} split into payloads
+ * fitting PostgreSQL notification payload size limit. Failed publishing is retried,
+ * if all attempts fail a clear-all event is published instead as soon as
+ * the database is reachable again, by the next publish or by the listener.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class PgNotifyInvalidationTransport implements InvalidationTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(PgNotifyInvalidationTransport.class);
+
+    private static final Pattern CHANNEL_PATTERN = Pattern.compile("[a-z_][a-z0-9_]*");
+
+    /**
+     * PostgreSQL limits notification payload by 8000 bytes.
+     */
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+
+    private static final long RECONNECT_DELAY_MILLIS = 5000L;
+
+    private static final int PUBLISH_ATTEMPTS = 3;
+
+    private static final long PUBLISH_RETRY_DELAY_MILLIS = 200L;
+
+    private final DataSource dataSource;
+
+    private final String channel;
+
+    private final int pollMillis;
+
+    private volatile boolean running;
+
+    /**
+     * Origin of the events failed to publish, clear-all event is pending if not null.
+     */
+    private final AtomicReference<String> lostOrigin = new AtomicReference<>();
+
+    private Thread listener;
+
+    public PgNotifyInvalidationTransport(DataSource dataSource, String channel, int pollMillis) {
+        if (!CHANNEL_PATTERN.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Invalid notification channel name: " + channel);
+        }
+        this.dataSource = dataSource;
+        this.channel = channel;
+        this.pollMillis = pollMillis;
+    }
+
+    @Override
+    public synchronized void start(Consumer<InvalidationEvent> receiver, Runnable resync) {
+        if (running) {
+            return;
+        }
+        running = true;
+        listener = new Thread(() -> listen(receiver, resync), "cayenne-invalidation-" + channel);
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    private void listen(Consumer<InvalidationEvent> receiver, Runnable resync) {
+        boolean reconnect = false;
+        while (running) {
+            try (Connection con = dataSource.getConnection()) {
+                if (!con.getAutoCommit()) {
+                    con.setAutoCommit(true);
+                }
+                try (Statement st = con.createStatement()) {
+                    st.execute("LISTEN " + channel);
+                }
+                log.info("Listening for cache invalidation events on channel: {}", channel);
+                if (reconnect) {
+                    try {
+                        resync.run();
+                    } catch (RuntimeException e) {
+                        log.error("Failed to resync after reconnect", e);
+                    }
+                }
+                PGConnection pgcon = con.unwrap(PGConnection.class);
+                while (running) {
+                    publishLost(con);
+                    PGNotification[] notifications = pgcon.getNotifications(pollMillis);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification n : notifications) {
+                        try {
+                            receiver.accept(InvalidationEvent.decode(n.getParameter()));
+                        } catch (RuntimeException e) {
+                            log.error("Failed to process invalidation event", e);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                reconnect = true;
+                log.warn("Invalidation listener connection failed, reconnecting in {} ms",
+                         RECONNECT_DELAY_MILLIS, e);
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void publish(InvalidationEvent event) {
+        for (int attempt = 1; ; ++attempt) {
+            try (Connection con = dataSource.getConnection()) {
+                publishLost(con);
+                notify(con, event);
+                return;
+            } catch (SQLException e) {
+                if (attempt >= PUBLISH_ATTEMPTS) {
+                    log.error("Failed to publish invalidation event: {}, "
+                              + "clear-all event will be published", event, e);
+                    lostOrigin.set(event.getOrigin());
+                    return;
+                }
+                log.warn("Failed to publish invalidation event, attempt: {}", attempt, e);
+                try {
+                    Thread.sleep(PUBLISH_RETRY_DELAY_MILLIS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    lostOrigin.set(event.getOrigin());
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes pending clear-all event replacing events failed to publish.
+     */
+    private void publishLost(Connection con) throws SQLException {
+        String origin = lostOrigin.get();
+        if (origin == null) {
+            return;
+        }
+        notify(con, InvalidationEvent.clearAll(origin));
+        lostOrigin.compareAndSet(origin, null);
+        log.info("Published clear-all invalidation event after failed publishing");
+    }
+
+    private void notify(Connection con, InvalidationEvent event) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("SELECT pg_notify(?, ?)")) {
+            for (String payload : event.encode(MAX_PAYLOAD_BYTES)) {
+                ps.setString(1, channel);
+                ps.setString(2, payload);
+                ps.execute();
+            }
+        }
+        if (!con.getAutoCommit()) {
+            con.commit();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        running = false;
+        if (listener != null) {
+            try {
+                listener.join(pollMillis * 2L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            listener = null;
+        }
+    }
+}
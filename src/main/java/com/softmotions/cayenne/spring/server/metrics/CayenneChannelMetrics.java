@@ -0,0 +1,184 @@
+package com.softmotions.cayenne.spring.server.metrics;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.QueryMetadata;
+
+import com.softmotions.cayenne.spring.CayenneServerRuntimeCustomizer;
+
+/**
+ * Data domain filter recording query and commit meters:
+ * <ul>
+ * <li>{@code cayenne.query} timer and {@code cayenne.query.rows} summary per root entity.</li>
+ * <li>{@code cayenne.commit} timer of object context flushes.</li>
+ * <li>{@code cayenne.commit.objects} counter of committed objects per entity and operation.</li>
+ * <li>{@code cayenne.context.registered} summary of objects registered
+ * in the committed object context.</li>
+ * </ul>
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class CayenneChannelMetrics implements DataChannelFilter, CayenneServerRuntimeCustomizer {
+
+    private static final String NO_ENTITY = "none";
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<String, QueryMeters> queryMeters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Counter[]> commitCounters = new ConcurrentHashMap<>();
+
+    private final Timer commitTimer;
+
+    private final DistributionSummary registeredSummary;
+
+    private EntityResolver entityResolver;
+
+    public CayenneChannelMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.commitTimer = Timer.builder("cayenne.commit")
+                                .description("Object context flushes")
+                                .register(registry);
+        this.registeredSummary = DistributionSummary.builder("cayenne.context.registered")
+                                                    .description("Objects registered in committed object context")
+                                                    .register(registry);
+    }
+
+    @Override
+    public void customize(ServerRuntimeBuilder builder) {
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void customizeRuntime(ServerRuntime runtime) {
+        runtime.getDataDomain().addFilter(this);
+    }
+
+    @Override
+    public void init(DataChannel channel) {
+        this.entityResolver = channel.getEntityResolver();
+    }
+
+    @Override
+    public QueryResponse onQuery(ObjectContext originatingContext, Query query, DataChannelFilterChain filterChain) {
+        QueryMeters meters = queryMeters.computeIfAbsent(entityName(query), QueryMeters::new);
+        long start = System.nanoTime();
+        QueryResponse response = filterChain.onQuery(originatingContext, query);
+        meters.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        List<?> rows = response.firstList();
+        if (rows != null) {
+            meters.rows.record(rows.size());
+        }
+        return response;
+    }
+
+    @Override
+    public GraphDiff onSync(ObjectContext originatingContext,
+                            GraphDiff changes,
+                            int syncType,
+                            DataChannelFilterChain filterChain) {
+        if (syncType == DataChannel.ROLLBACK_CASCADE_SYNC || originatingContext == null) {
+            return filterChain.onSync(originatingContext, changes, syncType);
+        }
+        // changes are collected before commit and recorded only if it succeeds
+        Map<String, int[]> counts = new HashMap<>();
+        count(originatingContext.newObjects(), 0, counts);
+        count(originatingContext.modifiedObjects(), 1, counts);
+        count(originatingContext.deletedObjects(), 2, counts);
+        int registered = (originatingContext instanceof DataContext)
+                         ? ((DataContext) originatingContext).getObjectStore().registeredObjectsCount()
+                         : -1;
+        long start = System.nanoTime();
+        GraphDiff res;
+        try {
+            res = filterChain.onSync(originatingContext, changes, syncType);
+        } finally {
+            commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        for (Map.Entry<String, int[]> e : counts.entrySet()) {
+            Counter[] counters = commitCounters.computeIfAbsent(e.getKey(), this::createCommitCounters);
+            int[] c = e.getValue();
+            for (int i = 0; i < c.length; ++i) {
+                if (c[i] > 0) {
+                    counters[i].increment(c[i]);
+                }
+            }
+        }
+        if (registered >= 0) {
+            registeredSummary.record(registered);
+        }
+        return res;
+    }
+
+    private String entityName(Query query) {
+        EntityResolver resolver = this.entityResolver;
+        if (resolver == null) {
+            return NO_ENTITY;
+        }
+        QueryMetadata md = query.getMetaData(resolver);
+        ObjEntity entity = (md != null) ? md.getObjEntity() : null;
+        return (entity != null) ? entity.getName() : NO_ENTITY;
+    }
+
+    private static void count(Collection<?> objects, int operation, Map<String, int[]> counts) {
+        for (Object o : objects) {
+            if (o instanceof Persistent) {
+                String entity = ((Persistent) o).getObjectId().getEntityName();
+                counts.computeIfAbsent(entity, k -> new int[3])[operation]++;
+            }
+        }
+    }
+
+    private Counter[] createCommitCounters(String entity) {
+        String[] operations = {"insert", "update", "delete"};
+        Counter[] counters = new Counter[operations.length];
+        for (int i = 0; i < operations.length; ++i) {
+            counters[i] = Counter.builder("cayenne.commit.objects")
+                                 .description("Committed objects")
+                                 .tags("entity", entity, "operation", operations[i])
+                                 .register(registry);
+        }
+        return counters;
+    }
+
+    private final class QueryMeters {
+
+        final Timer timer;
+
+        final DistributionSummary rows;
+
+        private QueryMeters(String entity) {
+            this.timer = Timer.builder("cayenne.query")
+                              .description("Cayenne query execution")
+                              .tag("entity", entity)
+                              .register(registry);
+            this.rows = DistributionSummary.builder("cayenne.query.rows")
+                                           .description("Rows returned by Cayenne query")
+                                           .tag("entity", entity)
+                                           .register(registry);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.softmotions.cayenne.spring.server.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import com.softmotions.cayenne.spring.server.pool.ObjectContextPool;
+import com.softmotions.cayenne.spring.server.tx.CayenneTransactionStatistics;
+
+/**
+ * Binds connection state statistics of transaction manager
+ * and object context pool state to meter registry.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class CayenneMeterBinder implements MeterBinder {
+
+    private final CayenneTransactionStatistics statistics;
+
+    private final ObjectContextPool contextPool;
+
+    /**
+     * @param statistics  transaction statistics, may be null
+     * @param contextPool object context pool, may be null
+     */
+    public CayenneMeterBinder(CayenneTransactionStatistics statistics, ObjectContextPool contextPool) {
+        this.statistics = statistics;
+        this.contextPool = contextPool;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        if (statistics != null) {
+            FunctionCounter.builder("cayenne.tx.connection.skipped", statistics,
+                                    CayenneTransactionStatistics::getAutoCommitSkipped)
+                           .description("Skipped connection state changes")
+                           .tag("state", "auto-commit")
+                           .register(registry);
+            FunctionCounter.builder("cayenne.tx.connection.skipped", statistics,
+                                    CayenneTransactionStatistics::getReadOnlySkipped)
+                           .description("Skipped connection state changes")
+                           .tag("state", "read-only")
+                           .register(registry);
+            FunctionCounter.builder("cayenne.tx.connection.skipped", statistics,
+                                    CayenneTransactionStatistics::getIsolationSkipped)
+                           .description("Skipped connection state changes")
+                           .tag("state", "isolation")
+                           .register(registry);
+        }
+        if (contextPool != null) {
+            Gauge.builder("cayenne.context.pool.idle", contextPool, ObjectContextPool::getIdle)
+                 .description("Idle object contexts in the pool")
+                 .register(registry);
+            FunctionCounter.builder("cayenne.context.pool.created", contextPool, ObjectContextPool::getCreated)
+                           .description("Object contexts created by the pool")
+                           .register(registry);
+            FunctionCounter.builder("cayenne.context.pool.reused", contextPool, ObjectContextPool::getReused)
+                           .description("Object contexts reused from the pool")
+                           .register(registry);
+            FunctionCounter.builder("cayenne.context.pool.discarded", contextPool, ObjectContextPool::getDiscarded)
+                           .description("Object contexts discarded by the pool")
+                           .register(registry);
+        }
+    }
+}
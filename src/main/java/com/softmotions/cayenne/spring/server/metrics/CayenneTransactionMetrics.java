@@ -0,0 +1,71 @@
+package com.softmotions.cayenne.spring.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.cayenne.ObjectContext;
+import org.springframework.transaction.TransactionDefinition;
+
+import com.softmotions.cayenne.spring.server.tx.CayenneTransactionListener;
+
+/**
+ * Transaction meters:
+ * <ul>
+ * <li>{@code cayenne.tx.begin} counter of started transactions per propagation.</li>
+ * <li>{@code cayenne.tx} timer of completed transactions per propagation and outcome.</li>
+ * </ul>
+ * Meters are registered eagerly, so no allocation happens per transaction.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class CayenneTransactionMetrics implements CayenneTransactionListener {
+
+    private static final String[] PROPAGATIONS = {
+            "required", "supports", "mandatory", "requires_new",
+            "not_supported", "never", "nested"
+    };
+
+    private final Counter[] begin = new Counter[PROPAGATIONS.length];
+
+    private final Timer[] commit = new Timer[PROPAGATIONS.length];
+
+    private final Timer[] rollback = new Timer[PROPAGATIONS.length];
+
+    public CayenneTransactionMetrics(MeterRegistry registry) {
+        for (int i = 0; i < PROPAGATIONS.length; ++i) {
+            begin[i] = Counter.builder("cayenne.tx.begin")
+                              .description("Started Cayenne transactions")
+                              .tag("propagation", PROPAGATIONS[i])
+                              .register(registry);
+            commit[i] = Timer.builder("cayenne.tx")
+                             .description("Completed Cayenne transactions")
+                             .tags("propagation", PROPAGATIONS[i], "outcome", "commit")
+                             .register(registry);
+            rollback[i] = Timer.builder("cayenne.tx")
+                               .description("Completed Cayenne transactions")
+                               .tags("propagation", PROPAGATIONS[i], "outcome", "rollback")
+                               .register(registry);
+        }
+    }
+
+    @Override
+    public void transactionStarted(TransactionDefinition definition, ObjectContext context) {
+        begin[index(definition)].increment();
+    }
+
+    @Override
+    public void transactionCompleted(TransactionDefinition definition,
+                                     ObjectContext context,
+                                     boolean committed,
+                                     long durationNanos) {
+        int idx = index(definition);
+        (committed ? commit[idx] : rollback[idx]).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static int index(TransactionDefinition definition) {
+        int p = definition.getPropagationBehavior();
+        return (p >= 0 && p < PROPAGATIONS.length) ? p : 0;
+    }
+}
@@ -0,0 +1,127 @@
+package com.softmotions.cayenne.spring.server.pool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of reusable {@link DataContext}s.
+ * <p>
+ * Released contexts are reset and returned to the pool: all their objects are unregistered,
+ * local query cache and user properties are cleared, delegate and validation mode are restored.
+ * Contexts having uncommitted changes are never reused, they are discarded.
+ * Contexts not acquired from the pool or released twice are ignored.
+ * Leased contexts are not referenced by the pool: contexts of threads
+ * which never release them (schedulers, async executors) are simply garbage collected.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class ObjectContextPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ObjectContextPool.class);
+
+    private final ServerRuntime runtime;
+
+    private final BlockingQueue<DataContext> pool;
+
+    /**
+     * Contexts currently leased from the pool. Keys are weak,
+     * so contexts never released are garbage collected.
+     */
+    private final Map<ObjectContext, Boolean> leased = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Validation mode of contexts created by runtime.
+     */
+    private volatile boolean validating = true;
+
+    private final LongAdder created = new LongAdder();
+
+    private final LongAdder reused = new LongAdder();
+
+    private final LongAdder discarded = new LongAdder();
+
+    public ObjectContextPool(ServerRuntime runtime, int maxSize) {
+        this.runtime = runtime;
+        this.pool = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    public ObjectContext acquire() {
+        ObjectContext octx = pool.poll();
+        if (octx != null) {
+            reused.increment();
+        } else {
+            octx = runtime.newContext();
+            if (octx instanceof DataContext) {
+                validating = ((DataContext) octx).isValidatingObjectsOnCommit();
+            }
+            created.increment();
+        }
+        leased.put(octx, Boolean.TRUE);
+        return octx;
+    }
+
+    /**
+     * Returns context to the pool.
+     */
+    public void release(ObjectContext octx) {
+        if (octx == null || leased.remove(octx) == null) {
+            return;
+        }
+        if (!(octx instanceof DataContext) || octx.hasChanges()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Discarding object context with uncommitted changes: {}", octx);
+            }
+            discarded.increment();
+            return;
+        }
+        DataContext dctx = (DataContext) octx;
+        Collection<Object> registered = dctx.getGraphManager().registeredNodes();
+        if (!registered.isEmpty()) {
+            dctx.unregisterObjects(new ArrayList<>(registered));
+        }
+        if (dctx.getQueryCache() != null) {
+            dctx.getQueryCache().clear();
+        }
+        dctx.clearUserProperties();
+        dctx.setDelegate(null);
+        dctx.setValidatingObjectsOnCommit(validating);
+        if (!pool.offer(dctx)) {
+            discarded.increment();
+        }
+    }
+
+    /**
+     * Returns true if given context is leased from this pool.
+     */
+    public boolean isLeased(ObjectContext octx) {
+        return octx != null && leased.containsKey(octx);
+    }
+
+    public int getIdle() {
+        return pool.size();
+    }
+
+    public long getCreated() {
+        return created.sum();
+    }
+
+    public long getReused() {
+        return reused.sum();
+    }
+
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+}
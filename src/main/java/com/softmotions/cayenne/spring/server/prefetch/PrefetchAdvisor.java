@@ -0,0 +1,265 @@
+package com.softmotions.cayenne.spring.server.prefetch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.cayenne.configuration.ObjectContextFactory;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.map.ObjRelationship;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.cayenne.query.PrefetchTreeNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.softmotions.cayenne.spring.CayenneServerProperties;
+import com.softmotions.cayenne.spring.CayenneServerRuntimeCustomizer;
+import com.softmotions.cayenne.spring.server.query.QueryShape;
+import com.softmotions.cayenne.utils.ObjectSelects;
+
+/**
+ * Learns relationship paths faulted after {@link ObjectSelect} root queries
+ * and adds prefetches of these paths to later executions of the same query shape.
+ * <p>
+ * Faults are observed by {@link PrefetchLearningFilter}. A path is learned once
+ * its query shape is executed {@code threshold} times and the path is faulted
+ * at least {@code faultRatio} times per execution. To-one paths are prefetched with joint
+ * semantics, paths containing to-many relationships with disjoint-by-id semantics.
+ * Paths may also be pinned manually. Number of tracked query shapes
+ * and paths per shape is bounded.
+ * <p>
+ * Prefetches are added by object contexts created by {@link PrefetchDataContextFactory}
+ * right before query execution to a copy of the query, so the caller's
+ * {@link ObjectSelect} instance is never modified.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class PrefetchAdvisor implements CayenneServerRuntimeCustomizer {
+
+    private static final Logger log = LoggerFactory.getLogger(PrefetchAdvisor.class);
+
+    private final CayenneServerProperties.Prefetch cfg;
+
+    private final ConcurrentMap<QueryShape, ShapeStats> shapes = new ConcurrentHashMap<>();
+
+    private volatile EntityResolver entityResolver;
+
+    private volatile boolean shapesOverflow;
+
+    public PrefetchAdvisor(CayenneServerProperties.Prefetch cfg) {
+        this.cfg = cfg;
+    }
+
+    CayenneServerProperties.Prefetch getConfig() {
+        return cfg;
+    }
+
+    EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    @Override
+    public void customize(ServerRuntimeBuilder builder) {
+        builder.addModule(binder -> {
+            binder.bind(PrefetchAdvisor.class).toInstance(this);
+            binder.bind(ObjectContextFactory.class).to(PrefetchDataContextFactory.class);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void customizeRuntime(ServerRuntime runtime) {
+        entityResolver = runtime.getDataDomain().getEntityResolver();
+        runtime.getDataDomain().addFilter(new PrefetchLearningFilter(this));
+    }
+
+    /**
+     * Returns copy of the given query with learned and pinned prefetches added,
+     * or the query itself if there is nothing to prefetch.
+     */
+    public <T> ObjectSelect<T> apply(ObjectSelect<T> query) {
+        if (shapes.isEmpty() || !ObjectSelects.isPlain(query)) {
+            return query;
+        }
+        ShapeStats stats = shapes.get(QueryShape.of(query, entityResolver));
+        if (stats == null) {
+            return query;
+        }
+        ObjectSelect<T> copy = null;
+        for (PathStats ps : stats.paths.values()) {
+            if (ps.learned || ps.pinned) {
+                if (copy == null) {
+                    copy = ObjectSelects.copyOf(query);
+                }
+                copy.prefetch(ps.path, ps.semantics);
+            }
+        }
+        return (copy != null) ? copy : query;
+    }
+
+    /**
+     * Statistics of the given query shape, created if absent and store is not full.
+     */
+    ShapeStats stats(QueryShape shape) {
+        ShapeStats stats = shapes.get(shape);
+        if (stats != null) {
+            return stats;
+        }
+        if (shapes.size() >= cfg.getMaxShapes()) {
+            if (!shapesOverflow) {
+                shapesOverflow = true;
+                log.warn("Maximum number of tracked query shapes: {} reached", cfg.getMaxShapes());
+            }
+            return null;
+        }
+        return shapes.computeIfAbsent(shape, ShapeStats::new);
+    }
+
+    /**
+     * Pins prefetch path for the query shape with the given string representation.
+     *
+     * @return False if query shape is unknown or path is invalid
+     */
+    public boolean pin(String shape, String path) {
+        ShapeStats stats = findShape(shape);
+        if (stats == null) {
+            return false;
+        }
+        PathStats ps = stats.path(path, this);
+        if (ps == null) {
+            return false;
+        }
+        ps.pinned = true;
+        return true;
+    }
+
+    /**
+     * Unpins and forgets prefetch path of the query shape.
+     */
+    public boolean unpin(String shape, String path) {
+        ShapeStats stats = findShape(shape);
+        return stats != null && stats.paths.remove(path) != null;
+    }
+
+    /**
+     * Snapshot of tracked query shapes with their paths.
+     */
+    public Map<String, Object> describe() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        for (ShapeStats stats : shapes.values()) {
+            Map<String, Object> paths = new LinkedHashMap<>();
+            for (PathStats ps : stats.paths.values()) {
+                Map<String, Object> pm = new LinkedHashMap<>();
+                pm.put("faults", ps.faults.sum());
+                pm.put("learned", ps.learned);
+                pm.put("pinned", ps.pinned);
+                paths.put(ps.path, pm);
+            }
+            Map<String, Object> sm = new LinkedHashMap<>();
+            sm.put("executions", stats.executions.sum());
+            sm.put("paths", paths);
+            res.put(stats.shape.toString(), sm);
+        }
+        return res;
+    }
+
+    private ShapeStats findShape(String shape) {
+        for (ShapeStats stats : shapes.values()) {
+            if (stats.shape.toString().equals(shape)) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Prefetch semantics of the path relative to the root entity, -1 if path is invalid.
+     */
+    int semantics(String rootEntity, String path) {
+        EntityResolver resolver = entityResolver;
+        ObjEntity entity = (resolver != null && rootEntity != null) ? resolver.getObjEntity(rootEntity) : null;
+        if (entity == null) {
+            return -1;
+        }
+        int semantics = PrefetchTreeNode.JOINT_PREFETCH_SEMANTICS;
+        for (String name : path.split("\\.")) {
+            ObjRelationship rel = entity.getRelationship(name);
+            if (rel == null) {
+                return -1;
+            }
+            if (rel.isToMany()) {
+                semantics = PrefetchTreeNode.DISJOINT_BY_ID_PREFETCH_SEMANTICS;
+            }
+            entity = (ObjEntity) rel.getTargetEntity();
+        }
+        return semantics;
+    }
+
+    static final class ShapeStats {
+
+        final QueryShape shape;
+
+        final LongAdder executions = new LongAdder();
+
+        final ConcurrentMap<String, PathStats> paths = new ConcurrentHashMap<>();
+
+        ShapeStats(QueryShape shape) {
+            this.shape = shape;
+        }
+
+        PathStats path(String path, PrefetchAdvisor advisor) {
+            PathStats ps = paths.get(path);
+            if (ps != null) {
+                return ps;
+            }
+            if (paths.size() >= advisor.cfg.getMaxPaths()) {
+                return null;
+            }
+            int semantics = advisor.semantics(shape.getEntity(), path);
+            if (semantics < 0) {
+                return null;
+            }
+            return paths.computeIfAbsent(path, p -> new PathStats(p, semantics));
+        }
+
+        void fault(String path, PrefetchAdvisor advisor) {
+            PathStats ps = path(path, advisor);
+            if (ps == null) {
+                return;
+            }
+            ps.faults.increment();
+            if (ps.learned) {
+                return;
+            }
+            long execs = executions.sum();
+            if (execs >= advisor.cfg.getThreshold()
+                && ps.faults.sum() >= advisor.cfg.getFaultRatio() * execs) {
+                ps.learned = true;
+                log.info("Learned prefetch path: '{}' for query: {}", path, shape);
+            }
+        }
+    }
+
+    static final class PathStats {
+
+        final String path;
+
+        final int semantics;
+
+        final LongAdder faults = new LongAdder();
+
+        volatile boolean learned;
+
+        volatile boolean pinned;
+
+        PathStats(String path, int semantics) {
+            this.path = path;
+            this.semantics = semantics;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.softmotions.cayenne.spring.server.prefetch;
+
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+
+/**
+ * Actuator endpoint to view learned prefetch paths and to pin or unpin them.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+@Endpoint(id = "cayenneprefetch")
+public class PrefetchAdvisorEndpoint {
+
+    private final PrefetchAdvisor advisor;
+
+    public PrefetchAdvisorEndpoint(PrefetchAdvisor advisor) {
+        this.advisor = advisor;
+    }
+
+    @ReadOperation
+    public Map<String, Object> shapes() {
+        return advisor.describe();
+    }
+
+    @WriteOperation
+    public boolean pin(String shape, String path) {
+        return advisor.pin(shape, path);
+    }
+
+    @DeleteOperation
+    public boolean unpin(String shape, String path) {
+        return advisor.unpin(shape, path);
+    }
+}
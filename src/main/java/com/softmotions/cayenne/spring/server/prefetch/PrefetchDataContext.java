@@ -0,0 +1,33 @@
+package com.softmotions.cayenne.spring.server.prefetch;
+
+import java.util.List;
+
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.access.ObjectStore;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.cayenne.query.Query;
+
+/**
+ * Data context executing copies of {@link ObjectSelect} queries with learned prefetches added.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class PrefetchDataContext extends DataContext {
+
+    private final transient PrefetchAdvisor advisor;
+
+    public PrefetchDataContext(DataChannel channel, ObjectStore objectStore, PrefetchAdvisor advisor) {
+        super(channel, objectStore);
+        this.advisor = advisor;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public List performQuery(Query query) {
+        if (advisor != null && query instanceof ObjectSelect) {
+            query = advisor.apply((ObjectSelect<?>) query);
+        }
+        return super.performQuery(query);
+    }
+}
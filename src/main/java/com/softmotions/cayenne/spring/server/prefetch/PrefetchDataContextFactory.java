@@ -0,0 +1,23 @@
+package com.softmotions.cayenne.spring.server.prefetch;
+
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.access.ObjectStore;
+import org.apache.cayenne.configuration.server.DataContextFactory;
+import org.apache.cayenne.di.Inject;
+
+/**
+ * Creates {@link PrefetchDataContext}s.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class PrefetchDataContextFactory extends DataContextFactory {
+
+    @Inject
+    protected PrefetchAdvisor advisor;
+
+    @Override
+    protected DataContext newInstance(DataChannel parent, ObjectStore objectStore) {
+        return new PrefetchDataContext(parent, objectStore, advisor);
+    }
+}
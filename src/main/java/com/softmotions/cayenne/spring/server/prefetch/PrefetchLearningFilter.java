@@ -0,0 +1,216 @@
+package com.softmotions.cayenne.spring.server.prefetch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.DataRow;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.ObjectId;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.map.DbRelationship;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.map.ObjRelationship;
+import org.apache.cayenne.query.ObjectIdQuery;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.RelationshipQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.softmotions.cayenne.spring.server.query.QueryShape;
+
+/**
+ * Data domain filter attributing relationship faults to root queries.
+ * <p>
+ * Objects fetched by {@link ObjectSelect} queries and by faults are tagged
+ * in their object context with the root query shape and the path they
+ * were reached by. To-one targets of fetched objects are tagged using
+ * object snapshots, so hollow object resolution is attributed too.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+class PrefetchLearningFilter implements DataChannelFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(PrefetchLearningFilter.class);
+
+    private static final String TAGS_PROPERTY = PrefetchLearningFilter.class.getName() + ".TAGS";
+
+    private final PrefetchAdvisor advisor;
+
+    PrefetchLearningFilter(PrefetchAdvisor advisor) {
+        this.advisor = advisor;
+    }
+
+    @Override
+    public void init(DataChannel channel) {
+    }
+
+    @Override
+    public QueryResponse onQuery(ObjectContext originatingContext, Query query, DataChannelFilterChain filterChain) {
+        QueryResponse response = filterChain.onQuery(originatingContext, query);
+        if (originatingContext != null) {
+            try {
+                learn(originatingContext, query, response);
+            } catch (RuntimeException e) {
+                log.debug("Failed to learn prefetches from query: {}", query, e);
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public GraphDiff onSync(ObjectContext originatingContext,
+                            GraphDiff changes,
+                            int syncType,
+                            DataChannelFilterChain filterChain) {
+        return filterChain.onSync(originatingContext, changes, syncType);
+    }
+
+    private void learn(ObjectContext ctx, Query query, QueryResponse response) {
+        if (query instanceof ObjectSelect) {
+            PrefetchAdvisor.ShapeStats stats = advisor.stats(QueryShape.of(query, advisor.getEntityResolver()));
+            if (stats != null) {
+                stats.executions.increment();
+                tag(ctx, new Origin(stats, ""), response.firstList());
+            }
+        } else if (query instanceof RelationshipQuery) {
+            RelationshipQuery rq = (RelationshipQuery) query;
+            Origin origin = origin(ctx, rq.getObjectId());
+            if (origin != null) {
+                String path = origin.child(rq.getRelationshipName());
+                origin.stats.fault(path, advisor);
+                tag(ctx, new Origin(origin.stats, path), response.firstList());
+            }
+        } else if (query instanceof ObjectIdQuery) {
+            Origin origin = origin(ctx, ((ObjectIdQuery) query).getObjectId());
+            if (origin != null && !origin.path.isEmpty()) {
+                origin.stats.fault(origin.path, advisor);
+                tag(ctx, origin, response.firstList());
+            }
+        }
+    }
+
+    private static Origin origin(ObjectContext ctx, ObjectId oid) {
+        Map<ObjectId, Origin> tags = tags(ctx, false);
+        return (tags != null) ? tags.get(oid) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<ObjectId, Origin> tags(ObjectContext ctx, boolean create) {
+        Map<ObjectId, Origin> tags = (Map<ObjectId, Origin>) ctx.getUserProperty(TAGS_PROPERTY);
+        if (tags == null && create) {
+            tags = new HashMap<>();
+            ctx.setUserProperty(TAGS_PROPERTY, tags);
+        }
+        return tags;
+    }
+
+    private void tag(ObjectContext ctx, Origin origin, List<?> objects) {
+        if (objects == null || objects.isEmpty() || origin.depth() >= advisor.getConfig().getMaxDepth()) {
+            return;
+        }
+        Map<ObjectId, Origin> tags = tags(ctx, true);
+        int max = advisor.getConfig().getMaxTracked();
+        EntityResolver resolver = advisor.getEntityResolver();
+        ObjEntity entity = null;
+        List<ObjRelationship> toOne = null;
+        List<Origin> toOneOrigins = null;
+        for (Object o : objects) {
+            if (tags.size() >= max) {
+                return;
+            }
+            if (!(o instanceof Persistent)) {
+                continue;
+            }
+            ObjectId oid = ((Persistent) o).getObjectId();
+            tags.put(oid, origin);
+            if (resolver == null || !(ctx instanceof DataContext)) {
+                continue;
+            }
+            if (entity == null || !entity.getName().equals(oid.getEntityName())) {
+                entity = resolver.getObjEntity(oid.getEntityName());
+                toOne = toOneRelationships(entity);
+                toOneOrigins = new ArrayList<>(toOne.size());
+                for (ObjRelationship rel : toOne) {
+                    toOneOrigins.add(new Origin(origin.stats, origin.child(rel.getName())));
+                }
+            }
+            if (toOne.isEmpty()) {
+                continue;
+            }
+            DataRow row = ((DataContext) ctx).getObjectStore().getSnapshot(oid);
+            if (row == null) {
+                continue;
+            }
+            for (int i = 0; i < toOne.size(); ++i) {
+                ObjRelationship rel = toOne.get(i);
+                ObjectId tid = row.createTargetObjectId(rel.getTargetEntityName(), rel.getDbRelationships().get(0));
+                if (tid != null) {
+                    tags.putIfAbsent(tid, toOneOrigins.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * To-one relationships with foreign key in the source entity.
+     */
+    private static List<ObjRelationship> toOneRelationships(ObjEntity entity) {
+        List<ObjRelationship> res = new ArrayList<>();
+        if (entity == null) {
+            return res;
+        }
+        for (ObjRelationship rel : entity.getRelationships()) {
+            if (rel.isToMany() || rel.getDbRelationships().size() != 1) {
+                continue;
+            }
+            DbRelationship dbRel = rel.getDbRelationships().get(0);
+            if (!dbRel.isToPK() || dbRel.isToDependentPK()) {
+                continue;
+            }
+            res.add(rel);
+        }
+        return res;
+    }
+
+    /**
+     * Root query shape statistics and path object was reached by.
+     */
+    private static final class Origin {
+
+        final PrefetchAdvisor.ShapeStats stats;
+
+        final String path;
+
+        private Origin(PrefetchAdvisor.ShapeStats stats, String path) {
+            this.stats = stats;
+            this.path = path;
+        }
+
+        String child(String name) {
+            return path.isEmpty() ? name : path + '.' + name;
+        }
+
+        int depth() {
+            if (path.isEmpty()) {
+                return 0;
+            }
+            int depth = 1;
+            for (int i = 0; i < path.length(); ++i) {
+                if (path.charAt(i) == '.') {
+                    ++depth;
+                }
+            }
+            return depth;
+        }
+    }
+}
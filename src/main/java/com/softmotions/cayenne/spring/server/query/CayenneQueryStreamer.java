@@ -0,0 +1,191 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.ResultBatchIterator;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.query.ObjectSelect;
+
+import com.softmotions.cayenne.utils.ObjectSelects;
+
+/**
+ * Streams query results with bounded memory.
+ * <p>
+ * Queries are executed in a dedicated object context, not in the thread bound one.
+ * Results are fetched with JDBC fetch size and processed in batches,
+ * objects of every processed batch are unregistered from the context
+ * and become detached. Database cursor is held open by Cayenne transaction
+ * until iteration is finished or stream is closed.
+ * <p>
+ * Returned streams must be closed, for example by try-with-resources block.
+ * <p>
+ * Results of {@link KeysetPaginator} are walked page by page with keyset predicates,
+ * suitable for full table walks not holding database cursor open.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class CayenneQueryStreamer {
+
+    private final ServerRuntime runtime;
+
+    private final int fetchSize;
+
+    private final int batchSize;
+
+    public CayenneQueryStreamer(ServerRuntime runtime, int fetchSize, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.runtime = runtime;
+        this.fetchSize = fetchSize;
+        this.batchSize = batchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns stream of query results. Stream must be closed after use.
+     */
+    public <T> Stream<T> stream(ObjectSelect<T> query) {
+        ResultBatchIterator<T> batches = open(query);
+        Iterator<T> it = new Iterator<T>() {
+
+            private Iterator<T> current = Collections.emptyIterator();
+
+            private List<T> batch;
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (batch != null) {
+                        detach(batch);
+                        batch = null;
+                    }
+                    if (!batches.hasNext()) {
+                        return false;
+                    }
+                    batch = batches.next();
+                    current = batch.iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(batches::close);
+    }
+
+    /**
+     * Iterates over query results passing them to the callback in batches of {@link #getBatchSize()}.
+     */
+    public <T> void iterate(ObjectSelect<T> query, Consumer<List<T>> callback) {
+        try (ResultBatchIterator<T> batches = open(query)) {
+            while (batches.hasNext()) {
+                List<T> batch = batches.next();
+                try {
+                    callback.accept(batch);
+                } finally {
+                    detach(batch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns stream walking all results of the paginator by pages of {@link #getBatchSize()}.
+     * Every page is selected in a new object context and no cursor
+     * or transaction is held between pages.
+     */
+    public <T> Stream<T> stream(KeysetPaginator<T> paginator) {
+        Iterator<T> it = new Iterator<T>() {
+
+            private Iterator<T> current = Collections.emptyIterator();
+
+            private KeysetPage<T> page;
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (page != null && !page.hasNext()) {
+                        return false;
+                    }
+                    page = paginator.page(runtime.newContext(),
+                                          (page != null) ? page.getNextToken() : null,
+                                          batchSize);
+                    current = page.getItems().iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Walks all results of the paginator passing pages of {@link #getBatchSize()} to the callback.
+     */
+    public <T> void iterate(KeysetPaginator<T> paginator, Consumer<List<T>> callback) {
+        String token = null;
+        do {
+            KeysetPage<T> page = paginator.page(runtime.newContext(), token, batchSize);
+            if (!page.getItems().isEmpty()) {
+                callback.accept(page.getItems());
+            }
+            token = page.getNextToken();
+        } while (token != null);
+    }
+
+    /**
+     * Query without own statement fetch size is executed by a copy, the caller's query is kept intact.
+     */
+    private <T> ResultBatchIterator<T> open(ObjectSelect<T> query) {
+        ObjectContext context = runtime.newContext();
+        return ObjectSelects.withFetchSize(query, fetchSize).batchIterator(context, batchSize);
+    }
+
+    private static void detach(List<?> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Object first = batch.get(0);
+        if (first instanceof Persistent) {
+            ObjectContext ctx = ((Persistent) first).getObjectContext();
+            if (ctx instanceof DataContext) {
+                ((DataContext) ctx).unregisterObjects(batch);
+            }
+        }
+    }
+}
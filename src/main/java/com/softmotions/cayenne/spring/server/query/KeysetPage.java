@@ -0,0 +1,43 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import java.util.List;
+
+/**
+ * Page of results fetched by {@link KeysetPaginator}.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public final class KeysetPage<T> {
+
+    private final List<T> items;
+
+    private final String nextToken;
+
+    KeysetPage(List<T> items, String nextToken) {
+        this.items = items;
+        this.nextToken = nextToken;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Continuation token of the next page or {@code null} if this page is the last one.
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    @Override
+    public String toString() {
+        return "KeysetPage{" +
+               "items=" + items.size() +
+               ", nextToken='" + nextToken + '\'' +
+               '}';
+    }
+}
@@ -0,0 +1,159 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.SelectQuery;
+
+/**
+ * Keyset (seek) pagination of {@link ObjectSelect} results.
+ * <p>
+ * Results are ordered by key orderings which must form a unique not null key,
+ * for example a business key followed by the primary key. Instead of offset
+ * every next page is selected by the predicate equivalent to the row value comparison
+ * {@code (a, b) > (?, ?)} against the last row of the previous page:
+ * <pre>{@code
+ * a >= ? AND (a > ? OR (a = ? AND b > ?))
+ * }</pre>
+ * The redundant bound of the leading key lets database use composite index range scan.
+ * Descending keys are compared by {@code <}. Key values of the last row are passed
+ * between pages in an opaque continuation token.
+ * <p>
+ * Orderings of the source query are replaced by key orderings,
+ * the source query itself is never executed or modified.
+ * Queries fetching data rows are not supported.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class KeysetPaginator<T> {
+
+    private final ObjectSelect<T> query;
+
+    private final Ordering[] keys;
+
+    private final String fingerprint;
+
+    public KeysetPaginator(ObjectSelect<T> query, Ordering... keys) {
+        if (keys.length == 0) {
+            throw new IllegalArgumentException("At least one key ordering is required");
+        }
+        if (query.getEntityType() == null && query.getEntityName() == null) {
+            throw new IllegalArgumentException("Query must select objects of mapped entity");
+        }
+        if (query.isFetchingDataRows()) {
+            // data row keys are column names, key orderings can not be evaluated against them
+            throw new IllegalArgumentException("Data row queries are not supported");
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append((query.getEntityType() != null) ? query.getEntityType().getName() : query.getEntityName());
+        for (Ordering o : keys) {
+            if (o.isCaseInsensitive()) {
+                throw new IllegalArgumentException("Case insensitive key ordering is not supported: "
+                                                   + o.getSortSpecString());
+            }
+            sb.append(',').append(o.getSortSpecString()).append(o.isAscending() ? '+' : '-');
+        }
+        this.query = query;
+        this.keys = keys.clone();
+        this.fingerprint = Integer.toHexString(sb.toString().hashCode());
+    }
+
+    /**
+     * Selects the first page.
+     */
+    public KeysetPage<T> first(ObjectContext context, int pageSize) {
+        return page(context, null, pageSize);
+    }
+
+    /**
+     * Selects page following the given continuation token.
+     *
+     * @param token Continuation token of the previous page, {@code null} selects the first page
+     * @throws IllegalArgumentException if token is malformed or issued for other paginator
+     */
+    public KeysetPage<T> page(ObjectContext context, String token, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        Object[] after = (token != null) ? KeysetToken.decode(fingerprint, token, keys.length) : null;
+        List<T> items = createQuery(after, pageSize + 1).select(context);
+        if (items.size() <= pageSize) {
+            return new KeysetPage<>(items, null);
+        }
+        items = new ArrayList<>(items.subList(0, pageSize));
+        return new KeysetPage<>(items, tokenOf(items.get(pageSize - 1)));
+    }
+
+    /**
+     * Continuation token of the page following the given item.
+     */
+    public String tokenOf(T item) {
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            values[i] = keys[i].getSortSpec().evaluate(item);
+            if (values[i] == null) {
+                throw new CayenneRuntimeException("Null value of pagination key: %s", keys[i].getSortSpecString());
+            }
+        }
+        return KeysetToken.encode(fingerprint, values);
+    }
+
+    @SuppressWarnings("unchecked")
+    private SelectQuery<T> createQuery(Object[] after, int limit) {
+        Expression where = query.getWhere();
+        if (where != null) {
+            where = where.deepCopy();
+        }
+        if (after != null) {
+            Expression seek = seekExpression(after);
+            where = (where != null) ? where.andExp(seek) : seek;
+        }
+        List<Ordering> orderings = Arrays.asList(keys);
+        SelectQuery<T> q = (query.getEntityType() != null)
+                           ? new SelectQuery<>((Class<T>) query.getEntityType(), where, orderings)
+                           : new SelectQuery<>(query.getEntityName(), where, orderings);
+        q.setFetchLimit(limit);
+        if (query.getPrefetches() != null) {
+            q.setPrefetchTree(query.getPrefetches());
+        }
+        if (query.getStatementFetchSize() > 0) {
+            q.setStatementFetchSize(query.getStatementFetchSize());
+        }
+        return q;
+    }
+
+    private Expression seekExpression(Object[] after) {
+        List<Expression> terms = new ArrayList<>(keys.length);
+        for (int i = 0; i < keys.length; ++i) {
+            List<Expression> parts = new ArrayList<>(i + 1);
+            for (int j = 0; j < i; ++j) {
+                parts.add(ExpressionFactory.matchExp(keys[j].getSortSpec().deepCopy(), after[j]));
+            }
+            parts.add(compare(i, after[i], false));
+            terms.add((parts.size() == 1) ? parts.get(0) : ExpressionFactory.and(parts));
+        }
+        if (terms.size() == 1) {
+            return terms.get(0);
+        }
+        return compare(0, after[0], true).andExp(ExpressionFactory.or(terms));
+    }
+
+    private Expression compare(int idx, Object value, boolean inclusive) {
+        Expression path = keys[idx].getSortSpec().deepCopy();
+        if (keys[idx].isAscending()) {
+            return inclusive
+                   ? ExpressionFactory.greaterOrEqualExp(path, value)
+                   : ExpressionFactory.greaterExp(path, value);
+        }
+        return inclusive
+               ? ExpressionFactory.lessOrEqualExp(path, value)
+               : ExpressionFactory.lessExp(path, value);
+    }
+}
@@ -0,0 +1,167 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Text encoding of keyset pagination continuation tokens.
+ * <p>
+ * Token is URL safe base64 of the query fingerprint followed by key values,
+ * every value is encoded as {@code <type><length>:<text>}.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+final class KeysetToken {
+
+    private KeysetToken() {
+    }
+
+    static String encode(String fingerprint, Object[] values) {
+        StringBuilder sb = new StringBuilder(fingerprint.length() + values.length * 16);
+        append(sb, 'Q', fingerprint);
+        for (Object v : values) {
+            if (v instanceof Long) {
+                append(sb, 'L', v.toString());
+            } else if (v instanceof Integer) {
+                append(sb, 'I', v.toString());
+            } else if (v instanceof Short) {
+                append(sb, 'H', v.toString());
+            } else if (v instanceof String) {
+                append(sb, 'S', (String) v);
+            } else if (v instanceof BigDecimal) {
+                append(sb, 'D', v.toString());
+            } else if (v instanceof BigInteger) {
+                append(sb, 'N', v.toString());
+            } else if (v instanceof Double) {
+                append(sb, 'F', v.toString());
+            } else if (v instanceof Float) {
+                append(sb, 'f', v.toString());
+            } else if (v instanceof Boolean) {
+                append(sb, 'Z', v.toString());
+            } else if (v instanceof UUID) {
+                append(sb, 'u', v.toString());
+            } else if (v instanceof Timestamp) {
+                Timestamp ts = (Timestamp) v;
+                append(sb, 'T', ts.getTime() + "." + ts.getNanos());
+            } else if (v instanceof java.sql.Date) {
+                append(sb, 'd', v.toString());
+            } else if (v instanceof Date) {
+                append(sb, 'U', Long.toString(((Date) v).getTime()));
+            } else if (v instanceof LocalDate) {
+                append(sb, 'A', v.toString());
+            } else if (v instanceof LocalDateTime) {
+                append(sb, 'B', v.toString());
+            } else if (v instanceof LocalTime) {
+                append(sb, 'C', v.toString());
+            } else if (v instanceof OffsetDateTime) {
+                append(sb, 'O', v.toString());
+            } else if (v instanceof Instant) {
+                append(sb, 'J', v.toString());
+            } else {
+                throw new IllegalArgumentException("Unsupported key value type: " + v.getClass().getName());
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes key values of the token.
+     *
+     * @throws IllegalArgumentException if token is malformed or issued for other query
+     */
+    static Object[] decode(String fingerprint, String token, int size) {
+        Object[] values = new Object[size];
+        try {
+            String s = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int[] pos = {0};
+            if (s.charAt(0) != 'Q' || !fingerprint.equals(next(s, pos))) {
+                throw new IllegalArgumentException("Continuation token is issued for other query");
+            }
+            for (int i = 0; i < size; ++i) {
+                char type = s.charAt(pos[0]);
+                String text = next(s, pos);
+                values[i] = parse(type, text);
+            }
+            if (pos[0] != s.length()) {
+                throw new IllegalArgumentException("Invalid continuation token");
+            }
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid continuation token", e);
+        }
+        return values;
+    }
+
+    private static Object parse(char type, String text) {
+        switch (type) {
+            case 'L':
+                return Long.valueOf(text);
+            case 'I':
+                return Integer.valueOf(text);
+            case 'H':
+                return Short.valueOf(text);
+            case 'S':
+                return text;
+            case 'D':
+                return new BigDecimal(text);
+            case 'N':
+                return new BigInteger(text);
+            case 'F':
+                return Double.valueOf(text);
+            case 'f':
+                return Float.valueOf(text);
+            case 'Z':
+                return Boolean.valueOf(text);
+            case 'u':
+                return UUID.fromString(text);
+            case 'T': {
+                int idx = text.indexOf('.');
+                Timestamp ts = new Timestamp(Long.parseLong(text.substring(0, idx)));
+                ts.setNanos(Integer.parseInt(text.substring(idx + 1)));
+                return ts;
+            }
+            case 'd':
+                return java.sql.Date.valueOf(text);
+            case 'U':
+                return new Date(Long.parseLong(text));
+            case 'A':
+                return LocalDate.parse(text);
+            case 'B':
+                return LocalDateTime.parse(text);
+            case 'C':
+                return LocalTime.parse(text);
+            case 'O':
+                return OffsetDateTime.parse(text);
+            case 'J':
+                return Instant.parse(text);
+            default:
+                throw new IllegalArgumentException("Invalid continuation token");
+        }
+    }
+
+    private static void append(StringBuilder sb, char type, String text) {
+        sb.append(type).append(text.length()).append(':').append(text);
+    }
+
+    private static String next(String s, int[] pos) {
+        int sep = s.indexOf(':', pos[0] + 1);
+        int len = Integer.parseInt(s.substring(pos[0] + 1, sep));
+        int end = sep + 1 + len;
+        if (len < 0 || end > s.length()) {
+            throw new IllegalArgumentException("Invalid continuation token");
+        }
+        pos[0] = end;
+        return s.substring(sep + 1, end);
+    }
+}
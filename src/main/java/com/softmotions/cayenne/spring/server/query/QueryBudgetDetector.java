@@ -0,0 +1,242 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.map.ObjRelationship;
+import org.apache.cayenne.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.TransactionDefinition;
+
+import com.softmotions.cayenne.spring.CayenneServerProperties;
+import com.softmotions.cayenne.spring.CayenneServerRuntimeCustomizer;
+import com.softmotions.cayenne.spring.server.tx.CayenneTransactionListener;
+
+/**
+ * Detects N+1 query patterns and slow queries.
+ * <p>
+ * Queries reaching the data domain are counted in the {@link QueryScope}
+ * bound to the current thread. Scope is opened at web request start by the servlet
+ * request listener of {@link com.softmotions.cayenne.spring.CayenneServerWebAutoConfiguration},
+ * explicitly by {@link #call(String, Callable)} or, if no scope is open, at transaction start.
+ * Applications without the servlet listener (message consumers, scheduled jobs)
+ * get a scope per transaction unless they use {@link #call(String, Callable)}.
+ * When a query shape is repeated {@code repeatThreshold} times in one scope
+ * a warning with prefetch suggestions is logged. When number of queries
+ * exceeds {@code maxQueries} a warning is logged or
+ * {@link QueryBudgetExceededException} is thrown if {@code fail} is set.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class QueryBudgetDetector implements DataChannelFilter,
+                                            CayenneServerRuntimeCustomizer,
+                                            CayenneTransactionListener {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryBudgetDetector.class);
+
+    private static final ThreadLocal<QueryScope> SCOPE = new ThreadLocal<>();
+
+    private final CayenneServerProperties.QueryBudget cfg;
+
+    private EntityResolver entityResolver;
+
+    public QueryBudgetDetector(CayenneServerProperties.QueryBudget cfg) {
+        this.cfg = cfg;
+    }
+
+    /**
+     * Query scope bound to the current thread or null.
+     */
+    public static QueryScope current() {
+        return SCOPE.get();
+    }
+
+    /**
+     * Opens query scope for the current thread.
+     *
+     * @param owner Scope owner, the same object must be passed to {@link #close(Object)}
+     * @return New scope or null if thread already has a scope
+     */
+    public QueryScope open(String name, Object owner) {
+        if (SCOPE.get() != null) {
+            return null;
+        }
+        QueryScope scope = new QueryScope(name, owner);
+        SCOPE.set(scope);
+        return scope;
+    }
+
+    /**
+     * Executes the task in a new query scope, or in the scope
+     * already open for the current thread.
+     */
+    public <T> T call(String name, Callable<T> task) throws Exception {
+        Object owner = new Object();
+        QueryScope scope = open(name, owner);
+        try {
+            return task.call();
+        } finally {
+            if (scope != null) {
+                close(owner);
+            }
+        }
+    }
+
+    /**
+     * Closes the current thread scope if it is owned by the given owner.
+     */
+    public void close(Object owner) {
+        QueryScope scope = SCOPE.get();
+        if (scope == null || scope.owner != owner) {
+            return;
+        }
+        SCOPE.remove();
+        if (log.isDebugEnabled()) {
+            log.debug("Closed {}", scope);
+        }
+    }
+
+    @Override
+    public void customize(ServerRuntimeBuilder builder) {
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void customizeRuntime(ServerRuntime runtime) {
+        runtime.getDataDomain().addFilter(this);
+    }
+
+    @Override
+    public void init(DataChannel channel) {
+        this.entityResolver = channel.getEntityResolver();
+    }
+
+    @Override
+    public void transactionStarted(TransactionDefinition definition, ObjectContext context) {
+        open("transaction " + definition.getName(), definition);
+    }
+
+    @Override
+    public void transactionCompleted(TransactionDefinition definition,
+                                     ObjectContext context,
+                                     boolean committed,
+                                     long durationNanos) {
+        close(definition);
+    }
+
+    @Override
+    public QueryResponse onQuery(ObjectContext originatingContext, Query query, DataChannelFilterChain filterChain) {
+        QueryScope scope = SCOPE.get();
+        if (scope != null) {
+            register(scope, query);
+        }
+        long slow = cfg.getSlowQueryMillis();
+        if (slow <= 0) {
+            return filterChain.onQuery(originatingContext, query);
+        }
+        long start = System.nanoTime();
+        QueryResponse response = filterChain.onQuery(originatingContext, query);
+        long millis = (System.nanoTime() - start) / 1000000L;
+        if (millis >= slow) {
+            log.warn("Slow query: {} ms, {}{}", millis,
+                     QueryShape.of(query, entityResolver),
+                     (scope != null) ? " in " + scope.getName() : "");
+        }
+        return response;
+    }
+
+    @Override
+    public GraphDiff onSync(ObjectContext originatingContext,
+                            GraphDiff changes,
+                            int syncType,
+                            DataChannelFilterChain filterChain) {
+        return filterChain.onSync(originatingContext, changes, syncType);
+    }
+
+    private void register(QueryScope scope, Query query) {
+        QueryShape shape = QueryShape.of(query, entityResolver);
+        int count = scope.register(shape);
+        if (count == cfg.getRepeatThreshold()) {
+            log.warn("Query shape: {} repeated {} times in {}, {}",
+                     shape, count, scope.getName(), suggestPrefetch(scope, shape));
+        }
+        int budget = cfg.getMaxQueries();
+        if (budget > 0 && scope.getQueries() > budget) {
+            if (cfg.isFail()) {
+                throw new QueryBudgetExceededException(scope, budget);
+            }
+            if (!scope.budgetReported) {
+                scope.budgetReported = true;
+                log.warn("Query budget: {} exceeded in {}, top query shapes: {}",
+                         budget, scope.getName(), topShapes(scope));
+            }
+        }
+    }
+
+    private String suggestPrefetch(QueryScope scope, QueryShape shape) {
+        switch (shape.getKind()) {
+            case RELATIONSHIP:
+                return "consider prefetch of '" + shape.getDetail()
+                       + "' in queries of " + shape.getEntity() + rootQueries(scope, shape.getEntity());
+            case OBJECT:
+                List<String> paths = toOneRelationships(shape.getEntity());
+                return paths.isEmpty()
+                       ? "consider fetching " + shape.getEntity() + " objects in one query"
+                       : "consider prefetch of one of: " + paths;
+            default:
+                return "consider fetching data in one query";
+        }
+    }
+
+    private static String rootQueries(QueryScope scope, String entity) {
+        List<QueryShape> roots = new ArrayList<>();
+        for (QueryShape s : scope.getShapes().keySet()) {
+            if (!s.isFault() && entity.equals(s.getEntity())) {
+                roots.add(s);
+            }
+        }
+        return roots.isEmpty() ? "" : ", executed queries: " + roots;
+    }
+
+    /**
+     * Names of to-one relationships targeting the given entity.
+     */
+    private List<String> toOneRelationships(String entity) {
+        List<String> paths = new ArrayList<>();
+        if (entityResolver == null) {
+            return paths;
+        }
+        for (ObjEntity oe : entityResolver.getObjEntities()) {
+            for (ObjRelationship rel : oe.getRelationships()) {
+                if (!rel.isToMany() && entity.equals(rel.getTargetEntityName())) {
+                    paths.add(oe.getName() + '.' + rel.getName());
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static List<String> topShapes(QueryScope scope) {
+        List<Map.Entry<QueryShape, int[]>> entries = new ArrayList<>(scope.getShapes().entrySet());
+        entries.sort((e1, e2) -> Integer.compare(e2.getValue()[0], e1.getValue()[0]));
+        List<String> res = new ArrayList<>();
+        for (int i = 0; i < entries.size() && i < 5; ++i) {
+            Map.Entry<QueryShape, int[]> e = entries.get(i);
+            res.add(e.getKey() + " x" + e.getValue()[0]);
+        }
+        return res;
+    }
+}
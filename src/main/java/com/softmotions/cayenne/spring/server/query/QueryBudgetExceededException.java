@@ -0,0 +1,23 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import org.apache.cayenne.CayenneRuntimeException;
+
+/**
+ * Thrown when number of queries executed in request or transaction scope
+ * exceeds the configured query budget and fail mode is on.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class QueryBudgetExceededException extends CayenneRuntimeException {
+
+    private final transient QueryScope scope;
+
+    public QueryBudgetExceededException(QueryScope scope, int budget) {
+        super("Query budget: %d exceeded in scope: %s", budget, scope);
+        this.scope = scope;
+    }
+
+    public QueryScope getScope() {
+        return scope;
+    }
+}
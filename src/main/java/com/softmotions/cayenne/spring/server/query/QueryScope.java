@@ -0,0 +1,80 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Query statistics of a single request or transaction scope.
+ * Scope is bound to a thread and never shared between threads.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public final class QueryScope {
+
+    private final String name;
+
+    /**
+     * Scope owner, only owner is allowed to close the scope.
+     */
+    final Object owner;
+
+    private final Map<QueryShape, int[]> shapes = new HashMap<>();
+
+    private int queries;
+
+    private int faults;
+
+    boolean budgetReported;
+
+    QueryScope(String name, Object owner) {
+        this.name = name;
+        this.owner = owner;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of queries executed in this scope, including fault resolutions.
+     */
+    public int getQueries() {
+        return queries;
+    }
+
+    /**
+     * Number of relationship faults and hollow objects resolved by separate queries.
+     */
+    public int getFaults() {
+        return faults;
+    }
+
+    public Map<QueryShape, int[]> getShapes() {
+        return shapes;
+    }
+
+    /**
+     * Registers executed query, returns number of executions of the same query shape.
+     */
+    int register(QueryShape shape) {
+        ++queries;
+        if (shape.isFault()) {
+            ++faults;
+        }
+        int[] cnt = shapes.get(shape);
+        if (cnt == null) {
+            cnt = new int[1];
+            shapes.put(shape, cnt);
+        }
+        return ++cnt[0];
+    }
+
+    @Override
+    public String toString() {
+        return "QueryScope{" +
+               "name='" + name + '\'' +
+               ", queries=" + queries +
+               ", faults=" + faults +
+               '}';
+    }
+}
@@ -0,0 +1,169 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import java.util.Objects;
+
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.ColumnSelect;
+import org.apache.cayenne.query.ObjectIdQuery;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.QueryMetadata;
+import org.apache.cayenne.query.RelationshipQuery;
+
+/**
+ * Query shape: query root entity and structure without parameter values.
+ * Queries differing only in parameter values have equal shapes.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public final class QueryShape {
+
+    public enum Kind {
+        /**
+         * Regular query.
+         */
+        QUERY,
+        /**
+         * Relationship fault resolution.
+         */
+        RELATIONSHIP,
+        /**
+         * Hollow object resolution.
+         */
+        OBJECT
+    }
+
+    private final Kind kind;
+
+    private final String entity;
+
+    private final String detail;
+
+    private final int hash;
+
+    public QueryShape(Kind kind, String entity, String detail) {
+        this.kind = kind;
+        this.entity = entity;
+        this.detail = detail;
+        this.hash = Objects.hash(kind, entity, detail);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Root entity name, source entity name for relationship faults.
+     */
+    public String getEntity() {
+        return entity;
+    }
+
+    /**
+     * Relationship name for relationship faults, query structure otherwise.
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    public boolean isFault() {
+        return kind != Kind.QUERY;
+    }
+
+    public static QueryShape of(Query query, EntityResolver resolver) {
+        if (query instanceof RelationshipQuery) {
+            RelationshipQuery rq = (RelationshipQuery) query;
+            return new QueryShape(Kind.RELATIONSHIP, rq.getObjectId().getEntityName(), rq.getRelationshipName());
+        }
+        if (query instanceof ObjectIdQuery) {
+            return new QueryShape(Kind.OBJECT, ((ObjectIdQuery) query).getObjectId().getEntityName(), null);
+        }
+        String entity = null;
+        if (query instanceof ObjectSelect) {
+            entity = entityName((ObjectSelect<?>) query, resolver);
+        } else if (resolver != null) {
+            QueryMetadata md = query.getMetaData(resolver);
+            ObjEntity oe = (md != null) ? md.getObjEntity() : null;
+            entity = (oe != null) ? oe.getName() : null;
+        }
+        // copies of object selects made by subclasses share shape with the source query
+        String name = (query instanceof ObjectSelect && !(query instanceof ColumnSelect))
+                      ? ObjectSelect.class.getSimpleName()
+                      : query.getClass().getSimpleName();
+        StringBuilder sb = new StringBuilder(name);
+        if (query instanceof ObjectSelect) {
+            Expression where = ((ObjectSelect<?>) query).getWhere();
+            if (where != null) {
+                sb.append(' ');
+                appendStructure(where, sb);
+            }
+        }
+        return new QueryShape(Kind.QUERY, entity, sb.toString());
+    }
+
+    /**
+     * Root entity name of the object select, query metadata is not resolved
+     * so query can be modified before execution.
+     */
+    private static String entityName(ObjectSelect<?> query, EntityResolver resolver) {
+        if (query.getEntityName() != null) {
+            return query.getEntityName();
+        }
+        if (query.getEntityType() != null && resolver != null) {
+            ObjEntity oe = resolver.getObjEntity(query.getEntityType());
+            return (oe != null) ? oe.getName() : query.getEntityType().getSimpleName();
+        }
+        return query.getDbEntityName();
+    }
+
+    private static void appendStructure(Expression exp, StringBuilder sb) {
+        int type = exp.getType();
+        if (type == Expression.OBJ_PATH || type == Expression.DB_PATH) {
+            sb.append(exp);
+            return;
+        }
+        sb.append(type).append('(');
+        for (int i = 0, l = exp.getOperandCount(); i < l; ++i) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            Object op = exp.getOperand(i);
+            if (op instanceof Expression) {
+                appendStructure((Expression) op, sb);
+            } else {
+                sb.append('?');
+            }
+        }
+        sb.append(')');
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QueryShape that = (QueryShape) o;
+        return hash == that.hash &&
+               kind == that.kind &&
+               Objects.equals(entity, that.entity) &&
+               Objects.equals(detail, that.detail);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case RELATIONSHIP:
+                return "fault " + entity + '.' + detail;
+            case OBJECT:
+                return "fault " + entity;
+            default:
+                return detail + " on " + entity;
+        }
+    }
+}
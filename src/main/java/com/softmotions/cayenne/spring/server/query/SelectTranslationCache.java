@@ -0,0 +1,570 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.cayenne.access.jdbc.ColumnDescriptor;
+import org.apache.cayenne.access.translator.DbAttributeBinding;
+import org.apache.cayenne.access.translator.select.DefaultSelectTranslatorFactory;
+import org.apache.cayenne.access.translator.select.SelectTranslator;
+import org.apache.cayenne.access.translator.select.SelectTranslatorFactory;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.Property;
+import org.apache.cayenne.exp.parser.ASTFunctionCall;
+import org.apache.cayenne.exp.parser.ASTList;
+import org.apache.cayenne.exp.parser.ASTScalar;
+import org.apache.cayenne.exp.parser.PatternMatchNode;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.PrefetchTreeNode;
+import org.apache.cayenne.query.SelectQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.softmotions.cayenne.spring.CayenneServerRuntimeCustomizer;
+
+/**
+ * Caches SQL translation of select queries by query shape.
+ * <p>
+ * Shape of a query is its root, qualifier and having expression trees, orderings,
+ * columns, prefetch tree and limit with literal values replaced by their types.
+ * Queries having fetch offset are not cached, since every page would be a distinct shape.
+ * For a new shape the query is translated by {@link DefaultSelectTranslatorFactory} twice:
+ * as is and as a probe copy having distinct marker instances in place of literals.
+ * Statement bindings are matched to literals by probe markers, so constant values
+ * never get mistaken for literals. If probe SQL is the same and every binding holds
+ * its literal unchanged, the SQL, result columns and binding descriptors are cached
+ * and reused for queries of the same shape with their own literal values.
+ * Shapes having literals rendered into SQL or converted before binding,
+ * as well as shapes having constant bindings, are never cached.
+ * Number of cached shapes is bounded, least recently used shapes are evicted from the full cache.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class SelectTranslationCache implements SelectTranslatorFactory, CayenneServerRuntimeCustomizer {
+
+    private static final Logger log = LoggerFactory.getLogger(SelectTranslationCache.class);
+
+    private static final Object UNCACHEABLE = new Object();
+
+    private final SelectTranslatorFactory delegate = new DefaultSelectTranslatorFactory();
+
+    private final Cache<Key, Object> entries;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder uncacheable = new LongAdder();
+
+    public SelectTranslationCache(int maxEntries) {
+        this.entries = Caffeine.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    @Override
+    public void customize(ServerRuntimeBuilder builder) {
+        builder.addModule(binder -> binder.bind(SelectTranslatorFactory.class).toInstance(this));
+    }
+
+    @Override
+    public void customizeRuntime(ServerRuntime runtime) {
+    }
+
+    @Override
+    public SelectTranslator translator(SelectQuery<?> query, DbAdapter adapter, EntityResolver entityResolver) {
+        List<Object> params = new ArrayList<>();
+        String shape = shapeOf(query, params);
+        if (shape == null) {
+            uncacheable.increment();
+            return delegate.translator(query, adapter, entityResolver);
+        }
+        Key key = new Key(adapter, shape);
+        Object entry = entries.getIfPresent(key);
+        if (entry instanceof Translation) {
+            hits.increment();
+            return ((Translation) entry).translator(params);
+        }
+        if (entry == UNCACHEABLE) {
+            uncacheable.increment();
+            return delegate.translator(query, adapter, entityResolver);
+        }
+        misses.increment();
+        return new RecordingTranslator(delegate.translator(query, adapter, entityResolver),
+                                      query, adapter, entityResolver, key, params);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of queries of shapes which can not be cached.
+     */
+    public long getUncacheable() {
+        return uncacheable.sum();
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum() + uncacheable.sum();
+        return (total > 0) ? (double) h / total : 0.0;
+    }
+
+    public int getSize() {
+        return (int) entries.estimatedSize();
+    }
+
+    public void clear() {
+        entries.invalidateAll();
+    }
+
+    private void store(Key key, Object entry) {
+        entries.asMap().putIfAbsent(key, entry);
+    }
+
+    /**
+     * Builds shape of the query collecting its literal values,
+     * returns {@code null} if query root is not supported or query has fetch offset.
+     */
+    static String shapeOf(SelectQuery<?> query, List<Object> params) {
+        if (query.getFetchOffset() > 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(128);
+        Object root = query.getRoot();
+        if (root instanceof Class) {
+            sb.append('C').append(((Class<?>) root).getName());
+        } else if (root instanceof String) {
+            sb.append('E').append(root);
+        } else if (root instanceof ObjEntity) {
+            sb.append('E').append(((ObjEntity) root).getName());
+        } else if (root instanceof DbEntity) {
+            sb.append('D').append(((DbEntity) root).getName());
+        } else {
+            return null;
+        }
+        sb.append('|').append(query.isDistinct()).append(',').append(query.isFetchingDataRows());
+        sb.append("|q:");
+        appendExpression(sb, query.getQualifier(), params);
+        sb.append("|h:");
+        appendExpression(sb, query.getHavingQualifier(), params);
+        sb.append("|o:");
+        for (Ordering o : query.getOrderings()) {
+            appendExpression(sb, o.getSortSpec(), params);
+            sb.append(o.getSortOrder()).append(',');
+        }
+        sb.append("|c:");
+        Collection<Property<?>> columns = query.getColumns();
+        if (columns != null) {
+            for (Property<?> p : columns) {
+                appendExpression(sb, p.getExpression(), params);
+                sb.append(p.getAlias()).append(',');
+            }
+        }
+        sb.append("|p:");
+        appendPrefetch(sb, query.getPrefetchTree());
+        sb.append("|l:").append(query.getFetchLimit());
+        return sb.toString();
+    }
+
+    private static void appendExpression(StringBuilder sb, Expression exp, List<Object> params) {
+        if (exp == null) {
+            sb.append('-');
+            return;
+        }
+        sb.append('(').append(exp.getClass().getName());
+        if (exp instanceof ASTFunctionCall) {
+            sb.append('#').append(((ASTFunctionCall) exp).getFunctionName());
+        } else if (exp instanceof PatternMatchNode) {
+            sb.append('#').append(((PatternMatchNode) exp).getEscapeChar());
+        }
+        sb.append(':');
+        boolean literal = (exp instanceof ASTScalar || exp instanceof ASTList);
+        for (int i = 0, l = exp.getOperandCount(); i < l; ++i) {
+            Object op = exp.getOperand(i);
+            if (op instanceof Expression) {
+                appendExpression(sb, (Expression) op, params);
+            } else if (literal) {
+                appendLiteral(sb, op, params);
+            } else {
+                sb.append('\'').append(op).append('\'');
+            }
+            sb.append(',');
+        }
+        sb.append(')');
+    }
+
+    private static void appendLiteral(StringBuilder sb, Object value, List<Object> params) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Expression) {
+            appendExpression(sb, (Expression) value, params);
+        } else if (value instanceof Object[]) {
+            appendLiterals(sb, Arrays.asList((Object[]) value), params);
+        } else if (value instanceof Collection) {
+            appendLiterals(sb, (Collection<?>) value, params);
+        } else {
+            sb.append('?').append(value.getClass().getName());
+            params.add(value);
+        }
+    }
+
+    private static void appendLiterals(StringBuilder sb, Collection<?> values, List<Object> params) {
+        sb.append('[').append(values.size()).append(':');
+        for (Object v : values) {
+            appendLiteral(sb, v, params);
+            sb.append(',');
+        }
+        sb.append(']');
+    }
+
+    private static void appendPrefetch(StringBuilder sb, PrefetchTreeNode node) {
+        if (node == null) {
+            return;
+        }
+        sb.append('(').append(node.getName()).append(':').append(node.getSemantics())
+          .append(':').append(node.isPhantom());
+        for (PrefetchTreeNode c : node.getChildren()) {
+            appendPrefetch(sb, c);
+        }
+        sb.append(')');
+    }
+
+    /**
+     * Copy of the query having its literals replaced by distinct {@link Probe} markers
+     * in the order of {@link #shapeOf(SelectQuery, List)}.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static SelectQuery<?> probeQuery(SelectQuery<?> query, List<Object> probes) {
+        SelectQuery q = new SelectQuery();
+        q.setRoot(query.getRoot());
+        q.setDistinct(query.isDistinct());
+        q.setFetchingDataRows(query.isFetchingDataRows());
+        q.setQualifier(probeExpression(query.getQualifier(), probes));
+        q.setHavingQualifier(probeExpression(query.getHavingQualifier(), probes));
+        for (Ordering o : query.getOrderings()) {
+            q.addOrdering(new Ordering(probeExpression(o.getSortSpec(), probes), o.getSortOrder()));
+        }
+        Collection<Property<?>> columns = query.getColumns();
+        if (columns != null) {
+            List<Property<?>> pcolumns = new ArrayList<>(columns.size());
+            for (Property<?> p : columns) {
+                pcolumns.add(Property.create(p.getName(), probeExpression(p.getExpression(), probes), p.getType()));
+            }
+            q.setColumns(pcolumns);
+        }
+        q.setPrefetchTree(query.getPrefetchTree());
+        q.setFetchLimit(query.getFetchLimit());
+        q.setFetchOffset(query.getFetchOffset());
+        return q;
+    }
+
+    private static Expression probeExpression(Expression exp, List<Object> probes) {
+        if (exp == null) {
+            return null;
+        }
+        Expression copy = exp.deepCopy();
+        replaceLiterals(copy, probes);
+        return copy;
+    }
+
+    private static void replaceLiterals(Expression exp, List<Object> probes) {
+        if (exp instanceof ASTScalar) {
+            ((ASTScalar) exp).setValue(probeLiteral(((ASTScalar) exp).getValue(), probes));
+            return;
+        }
+        if (exp instanceof ASTList) {
+            ((ASTList) exp).setValues(probeLiteral(exp.getOperand(0), probes));
+            return;
+        }
+        for (int i = 0, l = exp.getOperandCount(); i < l; ++i) {
+            Object op = exp.getOperand(i);
+            if (op instanceof Expression) {
+                replaceLiterals((Expression) op, probes);
+            }
+        }
+    }
+
+    private static Object probeLiteral(Object value, List<Object> probes) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Expression) {
+            replaceLiterals((Expression) value, probes);
+            return value;
+        } else if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            Object[] res = new Object[values.length];
+            for (int i = 0; i < values.length; ++i) {
+                res[i] = probeLiteral(values[i], probes);
+            }
+            return res;
+        } else if (value instanceof Collection) {
+            List<Object> res = new ArrayList<>(((Collection<?>) value).size());
+            for (Object v : (Collection<?>) value) {
+                res.add(probeLiteral(v, probes));
+            }
+            return res;
+        }
+        Probe probe = new Probe(probes.size());
+        probes.add(probe);
+        return probe;
+    }
+
+    /**
+     * Literal marker of probe translation.
+     */
+    private static final class Probe {
+
+        private final int index;
+
+        private Probe(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String toString() {
+            return "probe#" + index;
+        }
+    }
+
+    private static final class Key {
+
+        private final DbAdapter adapter;
+
+        private final String shape;
+
+        private final int hash;
+
+        private Key(DbAdapter adapter, String shape) {
+            this.adapter = adapter;
+            this.shape = shape;
+            this.hash = 31 * System.identityHashCode(adapter) + shape.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return adapter == key.adapter && shape.equals(key.shape);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Cached translation of a query shape.
+     */
+    private static final class Translation {
+
+        private final String sql;
+
+        private final DbAttributeBinding[] bindings;
+
+        /**
+         * Index of query literal bound by each binding.
+         */
+        private final int[] literals;
+
+        private final Map<ObjAttribute, ColumnDescriptor> attributeOverrides;
+
+        private final ColumnDescriptor[] resultColumns;
+
+        private final boolean suppressingDistinct;
+
+        private final boolean hasJoins;
+
+        private Translation(SelectTranslator translator, String sql, int[] literals) {
+            this.sql = sql;
+            this.bindings = translator.getBindings();
+            this.literals = literals;
+            this.attributeOverrides = translator.getAttributeOverrides();
+            this.resultColumns = translator.getResultColumns();
+            this.suppressingDistinct = translator.isSuppressingDistinct();
+            this.hasJoins = translator.hasJoins();
+        }
+
+        private SelectTranslator translator(List<Object> params) {
+            DbAttributeBinding[] res = new DbAttributeBinding[bindings.length];
+            for (int i = 0; i < res.length; ++i) {
+                DbAttributeBinding b = bindings[i];
+                DbAttributeBinding nb = new DbAttributeBinding(b.getAttribute());
+                if (b.isExcluded()) {
+                    nb.exclude();
+                } else {
+                    nb.include(b.getStatementPosition(), params.get(literals[i]), b.getExtendedType());
+                }
+                res[i] = nb;
+            }
+            return new SelectTranslator() {
+
+                @Override
+                public String getSql() {
+                    return sql;
+                }
+
+                @Override
+                public DbAttributeBinding[] getBindings() {
+                    return res;
+                }
+
+                @Override
+                public Map<ObjAttribute, ColumnDescriptor> getAttributeOverrides() {
+                    return attributeOverrides;
+                }
+
+                @Override
+                public ColumnDescriptor[] getResultColumns() {
+                    return resultColumns;
+                }
+
+                @Override
+                public boolean isSuppressingDistinct() {
+                    return suppressingDistinct;
+                }
+
+                @Override
+                public boolean hasJoins() {
+                    return hasJoins;
+                }
+            };
+        }
+    }
+
+    /**
+     * Translator of a new query shape storing translation
+     * into the cache once SQL is generated.
+     */
+    private final class RecordingTranslator implements SelectTranslator {
+
+        private final SelectTranslator translator;
+
+        private final SelectQuery<?> query;
+
+        private final DbAdapter adapter;
+
+        private final EntityResolver entityResolver;
+
+        private final Key key;
+
+        private final List<Object> params;
+
+        private RecordingTranslator(SelectTranslator translator,
+                                    SelectQuery<?> query,
+                                    DbAdapter adapter,
+                                    EntityResolver entityResolver,
+                                    Key key,
+                                    List<Object> params) {
+            this.translator = translator;
+            this.query = query;
+            this.adapter = adapter;
+            this.entityResolver = entityResolver;
+            this.key = key;
+            this.params = params;
+        }
+
+        @Override
+        public String getSql() throws Exception {
+            String sql = translator.getSql();
+            int[] literals = null;
+            try {
+                literals = matchLiterals(sql);
+            } catch (Exception e) {
+                log.debug("Probe translation failed", e);
+            }
+            if (literals == null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Literals are not bound one to one, shape is not cached: {}", key.shape);
+                }
+                store(key, UNCACHEABLE);
+            } else {
+                store(key, new Translation(translator, sql, literals));
+            }
+            return sql;
+        }
+
+        /**
+         * Translates probe copy of the query having distinct marker instances as literals
+         * and maps statement bindings to query literals by markers.
+         * Returns {@code null} if probe SQL differs (literal rendered into SQL),
+         * a binding is constant or its value is converted from the literal.
+         */
+        private int[] matchLiterals(String sql) throws Exception {
+            List<Object> probes = new ArrayList<>(params.size());
+            SelectTranslator pt = delegate.translator(probeQuery(query, probes), adapter, entityResolver);
+            if (probes.size() != params.size() || !sql.equals(pt.getSql())) {
+                return null;
+            }
+            DbAttributeBinding[] bindings = translator.getBindings();
+            DbAttributeBinding[] pbindings = pt.getBindings();
+            if (bindings.length != pbindings.length) {
+                return null;
+            }
+            int[] literals = new int[bindings.length];
+            Arrays.fill(literals, -1);
+            for (int b = 0; b < bindings.length; ++b) {
+                if (bindings[b].isExcluded() != pbindings[b].isExcluded()) {
+                    return null;
+                }
+                if (bindings[b].isExcluded()) {
+                    continue;
+                }
+                Object pv = pbindings[b].getValue();
+                for (int p = 0, l = probes.size(); p < l; ++p) {
+                    if (probes.get(p) == pv) {
+                        literals[b] = p;
+                        break;
+                    }
+                }
+                if (literals[b] == -1 || bindings[b].getValue() != params.get(literals[b])) {
+                    return null;
+                }
+            }
+            return literals;
+        }
+
+        @Override
+        public DbAttributeBinding[] getBindings() {
+            return translator.getBindings();
+        }
+
+        @Override
+        public Map<ObjAttribute, ColumnDescriptor> getAttributeOverrides() {
+            return translator.getAttributeOverrides();
+        }
+
+        @Override
+        public ColumnDescriptor[] getResultColumns() {
+            return translator.getResultColumns();
+        }
+
+        @Override
+        public boolean isSuppressingDistinct() {
+            return translator.isSuppressingDistinct();
+        }
+
+        @Override
+        public boolean hasJoins() {
+            return translator.hasJoins();
+        }
+    }
+}
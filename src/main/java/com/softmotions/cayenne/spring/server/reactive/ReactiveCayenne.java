@@ -0,0 +1,169 @@
+package com.softmotions.cayenne.spring.server.reactive;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.Persistent;
+import org.apache.cayenne.ResultBatchIterator;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.query.ObjectSelect;
+import org.apache.cayenne.query.SQLSelect;
+import org.apache.cayenne.query.Select;
+import org.springframework.beans.factory.DisposableBean;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import com.softmotions.cayenne.utils.ObjectSelects;
+
+/**
+ * Reactive facade of Cayenne queries for WebFlux applications.
+ * <p>
+ * Blocking JDBC work is executed on a dedicated scheduler
+ * bounded by the configured pool size, which should not exceed
+ * the size of the database connection pool.
+ * <p>
+ * Object context is taken from the Reactor subscriber {@link Context}
+ * (see {@link #withObjectContext(ObjectContext)}), if absent every
+ * subscription uses its own new context.
+ * <p>
+ * Query results are emitted in batches of {@code batchSize} objects,
+ * subscriber demand drives fetching from the database cursor.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class ReactiveCayenne implements DisposableBean {
+
+    private final ServerRuntime runtime;
+
+    private final Scheduler scheduler;
+
+    private final ExecutorService executor;
+
+    private final int batchSize;
+
+    public ReactiveCayenne(ServerRuntime runtime, int poolSize, int batchSize) {
+        if (poolSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("poolSize and batchSize must be positive");
+        }
+        this.runtime = runtime;
+        this.batchSize = batchSize;
+        this.executor = Executors.newFixedThreadPool(poolSize, new CayenneThreadFactory());
+        this.scheduler = Schedulers.fromExecutorService(executor);
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Binds the given object context to the subscriber context.
+     * Usage: {@code flux.subscriberContext(ReactiveCayenne.withObjectContext(octx))}
+     */
+    public static Function<Context, Context> withObjectContext(ObjectContext octx) {
+        return ctx -> ctx.put(ObjectContext.class, octx);
+    }
+
+    /**
+     * Object context bound to the subscriber context or new one.
+     */
+    public Mono<ObjectContext> objectContext() {
+        return Mono.subscriberContext()
+                   .map(ctx -> ctx.<ObjectContext>getOrEmpty(ObjectContext.class)
+                           .orElseGet(runtime::newContext));
+    }
+
+    /**
+     * Query without own statement fetch size is executed by a copy fetching {@code batchSize} rows.
+     */
+    public <T> Flux<T> select(ObjectSelect<T> query) {
+        return iterate(ObjectSelects.withFetchSize(query, batchSize));
+    }
+
+    public <T> Flux<T> select(SQLSelect<T> query) {
+        return iterate(query);
+    }
+
+    public <T> Mono<T> selectOne(Select<T> query) {
+        return objectContext()
+                .publishOn(scheduler)
+                .flatMap(octx -> Mono.justOrEmpty(octx.selectOne(query)));
+    }
+
+    public <T> Mono<T> selectFirst(Select<T> query) {
+        return objectContext()
+                .publishOn(scheduler)
+                .flatMap(octx -> Mono.justOrEmpty(octx.selectFirst(query)));
+    }
+
+    public <T> Mono<List<T>> selectList(Select<T> query) {
+        return objectContext()
+                .publishOn(scheduler)
+                .map(octx -> octx.select(query));
+    }
+
+    /**
+     * Executes the given blocking work on Cayenne scheduler with subscriber object context.
+     */
+    public <T> Mono<T> execute(Function<ObjectContext, T> work) {
+        return objectContext()
+                .publishOn(scheduler)
+                .flatMap(octx -> Mono.justOrEmpty(work.apply(octx)));
+    }
+
+    private <T> Flux<T> iterate(Select<T> query) {
+        return Mono.subscriberContext().flatMapMany(ctx -> {
+            ObjectContext bound = ctx.<ObjectContext>getOrEmpty(ObjectContext.class).orElse(null);
+            ObjectContext octx = (bound != null) ? bound : runtime.newContext();
+            return Flux.using(() -> octx.batchIterator(query, batchSize),
+                              batches -> Flux.fromIterable(batches)
+                                             .concatMapIterable(batch -> {
+                                                 if (bound == null) {
+                                                     detach(batch);
+                                                 }
+                                                 return batch;
+                                             }, 1),
+                              ResultBatchIterator::close);
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Unregisters batch objects from own context. Objects are still accessible
+     * by subscriber, but they are not retained by the context.
+     */
+    private static void detach(List<?> batch) {
+        if (batch.isEmpty() || !(batch.get(0) instanceof Persistent)) {
+            return;
+        }
+        ObjectContext ctx = ((Persistent) batch.get(0)).getObjectContext();
+        if (ctx instanceof DataContext) {
+            ((DataContext) ctx).unregisterObjects(batch);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+        executor.shutdown();
+    }
+
+    private static class CayenneThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "cayenne-reactive-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
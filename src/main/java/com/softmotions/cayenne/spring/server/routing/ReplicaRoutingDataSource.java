@@ -0,0 +1,255 @@
+package com.softmotions.cayenne.spring.server.routing;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Data source routing read only work to replicas.
+ * <p>
+ * Connections are obtained from a replica if:
+ * <ul>
+ * <li>the current Spring transaction is read only</li>
+ * <li>no transaction is active and connection is requested within {@link #read(Supplier)}</li>
+ * </ul>
+ * All other connections are obtained from the primary data source.
+ * After {@link #markWritten()} the calling thread sticks to the primary
+ * for the configured window so it reads its own writes.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private final ThreadLocal<Boolean> readHint = new ThreadLocal<>();
+
+    private final ThreadLocal<Long> primaryUntil = new ThreadLocal<>();
+
+    private final DataSource primary;
+
+    private final Replica[] replicas;
+
+    private final Strategy strategy;
+
+    private final long stickyNanos;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * @param stickyMillis Time in milliseconds thread sticks to primary after write
+     */
+    public ReplicaRoutingDataSource(DataSource primary,
+                                    List<DataSource> replicas,
+                                    Strategy strategy,
+                                    long stickyMillis) {
+        this.primary = primary;
+        this.replicas = new Replica[replicas.size()];
+        for (int i = 0; i < this.replicas.length; ++i) {
+            this.replicas[i] = new Replica(replicas.get(i), strategy == Strategy.LEAST_ACTIVE);
+        }
+        this.strategy = strategy;
+        this.stickyNanos = stickyMillis * 1000000L;
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    public DataSource getReplica(int idx) {
+        return replicas[idx].dataSource;
+    }
+
+    /**
+     * Number of connections currently leased from each replica.
+     * Tracked only by {@link Strategy#LEAST_ACTIVE} strategy.
+     */
+    public int[] getActiveConnections() {
+        int[] res = new int[replicas.length];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = replicas[i].active.get();
+        }
+        return res;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        boolean readOnly;
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        } else {
+            readOnly = Boolean.TRUE.equals(readHint.get());
+        }
+        return getConnection(readOnly);
+    }
+
+    /**
+     * Obtains connection for read only or read-write work.
+     */
+    public Connection getConnection(boolean readOnly) throws SQLException {
+        if (!readOnly || replicas.length == 0 || isPrimarySticky()) {
+            return primary.getConnection();
+        }
+        Replica replica = select();
+        try {
+            return replica.getConnection();
+        } catch (SQLException e) {
+            log.warn("Failed to obtain replica connection, falling back to primary", e);
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * Performs action routing connections obtained outside of transactions to replicas.
+     */
+    public <T> T read(Supplier<T> action) {
+        Boolean prev = readHint.get();
+        readHint.set(Boolean.TRUE);
+        try {
+            return action.get();
+        } finally {
+            if (prev == null) {
+                readHint.remove();
+            } else {
+                readHint.set(prev);
+            }
+        }
+    }
+
+    /**
+     * Sticks the current thread to the primary data source for the configured window.
+     */
+    public void markWritten() {
+        if (stickyNanos > 0) {
+            primaryUntil.set(System.nanoTime() + stickyNanos);
+        }
+    }
+
+    private boolean isPrimarySticky() {
+        Long until = primaryUntil.get();
+        if (until == null) {
+            return false;
+        }
+        if (System.nanoTime() - until < 0) {
+            return true;
+        }
+        primaryUntil.remove();
+        return false;
+    }
+
+    private Replica select() {
+        int n = replicas.length;
+        int start = Math.floorMod(counter.getAndIncrement(), n);
+        Replica best = replicas[start];
+        if (strategy == Strategy.ROUND_ROBIN || n == 1) {
+            return best;
+        }
+        for (int i = 1; i < n; ++i) {
+            Replica r = replicas[(start + i) % n];
+            if (r.active.get() < best.active.get()) {
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    public enum Strategy {
+        /**
+         * Replica with the least number of leased connections.
+         */
+        LEAST_ACTIVE,
+        /**
+         * Replicas in turn.
+         */
+        ROUND_ROBIN
+    }
+
+    private static final class Replica {
+
+        private final DataSource dataSource;
+
+        private final boolean counted;
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private Replica(DataSource dataSource, boolean counted) {
+            this.dataSource = dataSource;
+            this.counted = counted;
+        }
+
+        private Connection getConnection() throws SQLException {
+            Connection con = dataSource.getConnection();
+            if (!counted) {
+                return con;
+            }
+            active.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+                                                       new Class<?>[]{ConnectionProxy.class},
+                                                       new CountingInvocationHandler(con, active));
+        }
+    }
+
+    /**
+     * Decrements number of active replica connections on close.
+     */
+    private static final class CountingInvocationHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        private final AtomicInteger active;
+
+        private boolean closed;
+
+        private CountingInvocationHandler(Connection target, AtomicInteger active) {
+            this.target = target;
+            this.active = active;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getTargetConnection":
+                    return target;
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        active.decrementAndGet();
+                    }
+                    break;
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
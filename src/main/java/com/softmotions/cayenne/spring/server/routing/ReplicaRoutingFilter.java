@@ -0,0 +1,97 @@
+package com.softmotions.cayenne.spring.server.routing;
+
+import javax.sql.DataSource;
+
+import org.apache.cayenne.DataChannel;
+import org.apache.cayenne.DataChannelFilter;
+import org.apache.cayenne.DataChannelFilterChain;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.QueryResponse;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.configuration.server.ServerRuntimeBuilder;
+import org.apache.cayenne.graph.GraphDiff;
+import org.apache.cayenne.query.ObjectIdQuery;
+import org.apache.cayenne.query.Query;
+import org.apache.cayenne.query.RelationshipQuery;
+import org.apache.cayenne.query.Select;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.softmotions.cayenne.spring.CayenneServerRuntimeCustomizer;
+
+/**
+ * Routes Cayenne selects performed outside of Spring transactions to replicas
+ * of {@link ReplicaRoutingDataSource} and sticks thread to the primary after commits.
+ * Read only Spring transactions are routed by the data source itself.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class ReplicaRoutingFilter implements DataChannelFilter,
+                                             CayenneServerRuntimeCustomizer,
+                                             DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingFilter.class);
+
+    private final ReplicaRoutingDataSource dataSource;
+
+    public ReplicaRoutingFilter(ReplicaRoutingDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public ReplicaRoutingDataSource getDataSource() {
+        return dataSource;
+    }
+
+    @Override
+    public void customize(ServerRuntimeBuilder builder) {
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void customizeRuntime(ServerRuntime runtime) {
+        runtime.getDataDomain().addFilter(this);
+    }
+
+    @Override
+    public void init(DataChannel channel) {
+    }
+
+    @Override
+    public QueryResponse onQuery(ObjectContext originatingContext, Query query, DataChannelFilterChain filterChain) {
+        if (isRead(query) && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return dataSource.read(() -> filterChain.onQuery(originatingContext, query));
+        }
+        return filterChain.onQuery(originatingContext, query);
+    }
+
+    @Override
+    public GraphDiff onSync(ObjectContext originatingContext,
+                            GraphDiff changes,
+                            int syncType,
+                            DataChannelFilterChain filterChain) {
+        GraphDiff res = filterChain.onSync(originatingContext, changes, syncType);
+        if (syncType != DataChannel.ROLLBACK_CASCADE_SYNC) {
+            dataSource.markWritten();
+        }
+        return res;
+    }
+
+    private static boolean isRead(Query query) {
+        return query instanceof Select
+               || query instanceof ObjectIdQuery
+               || query instanceof RelationshipQuery;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (int i = 0, l = dataSource.getReplicaCount(); i < l; ++i) {
+            DataSource replica = dataSource.getReplica(i);
+            if (replica instanceof AutoCloseable) {
+                log.info("Closing replica data source: {}", replica);
+                ((AutoCloseable) replica).close();
+            }
+        }
+    }
+}
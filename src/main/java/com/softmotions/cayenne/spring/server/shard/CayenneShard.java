@@ -0,0 +1,98 @@
+package com.softmotions.cayenne.spring.server.shard;
+
+import javax.sql.DataSource;
+
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.softmotions.cayenne.spring.server.tx.CayenneTransactionManager;
+import com.softmotions.cayenne.utils.ObjectContextHolder;
+
+/**
+ * Named Cayenne runtime with its own data source,
+ * transaction manager and object context holder.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class CayenneShard {
+
+    private static final Logger log = LoggerFactory.getLogger(CayenneShard.class);
+
+    private final String name;
+
+    private final ServerRuntime runtime;
+
+    private final DataSource dataSource;
+
+    private final CayenneTransactionManager transactionManager;
+
+    private final ObjectContextHolder contextHolder;
+
+    public CayenneShard(String name,
+                        ServerRuntime runtime,
+                        DataSource dataSource,
+                        CayenneTransactionManager transactionManager) {
+        this.name = name;
+        this.runtime = runtime;
+        this.dataSource = dataSource;
+        this.transactionManager = transactionManager;
+        this.contextHolder = transactionManager.getContextHolder();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ServerRuntime getRuntime() {
+        return runtime;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public CayenneTransactionManager getTransactionManager() {
+        return transactionManager;
+    }
+
+    public ObjectContextHolder getContextHolder() {
+        return contextHolder;
+    }
+
+    /**
+     * Object context bound to the current thread,
+     * new context is created and bound if none.
+     */
+    public ObjectContext getContext() {
+        ObjectContext octx = contextHolder.get();
+        if (octx == null) {
+            octx = runtime.newContext();
+            contextHolder.set(octx);
+        }
+        return octx;
+    }
+
+    /**
+     * Shuts down runtime and closes data source.
+     */
+    void shutdown() {
+        log.info("Shutting down Cayenne runtime: {}", name);
+        runtime.shutdown();
+        if (dataSource instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) dataSource).close();
+            } catch (Exception e) {
+                log.error("Failed to close data source of runtime: {}", name, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CayenneShard{" +
+               "name='" + name + '\'' +
+               '}';
+    }
+}
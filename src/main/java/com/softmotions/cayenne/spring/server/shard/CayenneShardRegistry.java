@@ -0,0 +1,89 @@
+package com.softmotions.cayenne.spring.server.shard;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Named Cayenne runtimes and the runtime selected for the current thread.
+ * If no runtime is selected the default application runtime is used.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class CayenneShardRegistry implements DisposableBean {
+
+    private final ThreadLocal<String> current = new ThreadLocal<>();
+
+    private final Map<String, CayenneShard> shards = new LinkedHashMap<>();
+
+    public CayenneShardRegistry(Collection<CayenneShard> shards) {
+        for (CayenneShard shard : shards) {
+            this.shards.put(shard.getName(), shard);
+        }
+    }
+
+    public Collection<CayenneShard> getShards() {
+        return Collections.unmodifiableCollection(shards.values());
+    }
+
+    /**
+     * Runtime of the given name.
+     *
+     * @throws CayenneRuntimeException if runtime is not configured
+     */
+    public CayenneShard getShard(String name) {
+        CayenneShard shard = shards.get(name);
+        if (shard == null) {
+            throw new CayenneRuntimeException("Unknown Cayenne runtime: %s", name);
+        }
+        return shard;
+    }
+
+    public String getCurrentName() {
+        return current.get();
+    }
+
+    /**
+     * Runtime selected for the current thread or {@code null} for the default runtime.
+     */
+    public CayenneShard getCurrent() {
+        String name = current.get();
+        return (name != null) ? getShard(name) : null;
+    }
+
+    /**
+     * Selects runtime for the current thread, {@code null} selects the default runtime.
+     */
+    public void setCurrent(String name) {
+        if (name == null) {
+            current.remove();
+        } else {
+            current.set(name);
+        }
+    }
+
+    /**
+     * Performs action with the given runtime selected.
+     */
+    public <T> T call(String name, Supplier<T> action) {
+        String prev = current.get();
+        setCurrent(name);
+        try {
+            return action.get();
+        } finally {
+            setCurrent(prev);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        for (CayenneShard shard : shards.values()) {
+            shard.shutdown();
+        }
+    }
+}
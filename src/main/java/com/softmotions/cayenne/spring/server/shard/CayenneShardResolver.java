@@ -0,0 +1,17 @@
+package com.softmotions.cayenne.spring.server.shard;
+
+import javax.servlet.ServletRequest;
+
+/**
+ * Selects named Cayenne runtime serving the request.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+@FunctionalInterface
+public interface CayenneShardResolver {
+
+    /**
+     * Name of the runtime serving the request or {@code null} for the default runtime.
+     */
+    String resolve(ServletRequest request);
+}
@@ -0,0 +1,30 @@
+package com.softmotions.cayenne.spring.server.shard;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Takes runtime name from the request header.
+ * <p>
+ * The header is not authenticated, so it must be set by a trusted gateway
+ * stripping client supplied values, otherwise clients may select any runtime.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class HeaderShardResolver implements CayenneShardResolver {
+
+    private final String header;
+
+    public HeaderShardResolver(String header) {
+        this.header = header;
+    }
+
+    @Override
+    public String resolve(ServletRequest request) {
+        if (!(request instanceof HttpServletRequest)) {
+            return null;
+        }
+        String name = ((HttpServletRequest) request).getHeader(header);
+        return (name == null || name.isEmpty()) ? null : name;
+    }
+}
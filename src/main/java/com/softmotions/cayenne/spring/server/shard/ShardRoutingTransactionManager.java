@@ -0,0 +1,111 @@
+package com.softmotions.cayenne.spring.server.shard;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.TransactionStatus;
+
+/**
+ * Delegates transactions to the transaction manager of runtime
+ * selected for the current thread by {@link CayenneShardRegistry}.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class ShardRoutingTransactionManager implements PlatformTransactionManager {
+
+    private final PlatformTransactionManager defaultTransactionManager;
+
+    private final CayenneShardRegistry registry;
+
+    public ShardRoutingTransactionManager(PlatformTransactionManager defaultTransactionManager,
+                                          CayenneShardRegistry registry) {
+        this.defaultTransactionManager = defaultTransactionManager;
+        this.registry = registry;
+    }
+
+    /**
+     * Transaction manager of the default runtime.
+     */
+    public PlatformTransactionManager getDefaultTransactionManager() {
+        return defaultTransactionManager;
+    }
+
+    @Override
+    public TransactionStatus getTransaction(TransactionDefinition definition) throws TransactionException {
+        CayenneShard shard = registry.getCurrent();
+        PlatformTransactionManager tm = (shard != null) ? shard.getTransactionManager() : defaultTransactionManager;
+        return new RoutedTransactionStatus(tm, tm.getTransaction(definition));
+    }
+
+    @Override
+    public void commit(TransactionStatus status) throws TransactionException {
+        RoutedTransactionStatus rs = (RoutedTransactionStatus) status;
+        rs.transactionManager.commit(rs.status);
+    }
+
+    @Override
+    public void rollback(TransactionStatus status) throws TransactionException {
+        RoutedTransactionStatus rs = (RoutedTransactionStatus) status;
+        rs.transactionManager.rollback(rs.status);
+    }
+
+    /**
+     * Status bound to the transaction manager created it.
+     */
+    private static final class RoutedTransactionStatus implements TransactionStatus {
+
+        private final PlatformTransactionManager transactionManager;
+
+        private final TransactionStatus status;
+
+        private RoutedTransactionStatus(PlatformTransactionManager transactionManager, TransactionStatus status) {
+            this.transactionManager = transactionManager;
+            this.status = status;
+        }
+
+        @Override
+        public boolean isNewTransaction() {
+            return status.isNewTransaction();
+        }
+
+        @Override
+        public boolean hasSavepoint() {
+            return status.hasSavepoint();
+        }
+
+        @Override
+        public void setRollbackOnly() {
+            status.setRollbackOnly();
+        }
+
+        @Override
+        public boolean isRollbackOnly() {
+            return status.isRollbackOnly();
+        }
+
+        @Override
+        public void flush() {
+            status.flush();
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return status.isCompleted();
+        }
+
+        @Override
+        public Object createSavepoint() throws TransactionException {
+            return status.createSavepoint();
+        }
+
+        @Override
+        public void rollbackToSavepoint(Object savepoint) throws TransactionException {
+            status.rollbackToSavepoint(savepoint);
+        }
+
+        @Override
+        public void releaseSavepoint(Object savepoint) throws TransactionException {
+            status.releaseSavepoint(savepoint);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.softmotions.cayenne.spring.server.tx;
+
+import org.apache.cayenne.ObjectContext;
+import org.springframework.transaction.TransactionDefinition;
+
+/**
+ * Callback notified by {@link CayenneTransactionManager}
+ * about start and completion of physical transactions.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public interface CayenneTransactionListener {
+
+    default void transactionStarted(TransactionDefinition definition, ObjectContext context) {
+    }
+
+    /**
+     * @param committed     true if transaction was successfully committed
+     * @param durationNanos transaction duration in nanoseconds
+     */
+    default void transactionCompleted(TransactionDefinition definition,
+                                      ObjectContext context,
+                                      boolean committed,
+                                      long durationNanos) {
+    }
+}
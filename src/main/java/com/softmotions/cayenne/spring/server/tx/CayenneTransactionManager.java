@@ -2,9 +2,12 @@ package com.softmotions.cayenne.spring.server.tx;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import javax.sql.DataSource;
 
-import org.apache.cayenne.BaseContext;
 import org.apache.cayenne.CayenneRuntimeException;
 import org.apache.cayenne.DataChannel;
 import org.apache.cayenne.ObjectContext;
@@ -26,7 +29,10 @@ import org.springframework.transaction.support.ResourceTransactionManager;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionSynchronizationUtils;
 
+import com.softmotions.cayenne.spring.server.pool.ObjectContextPool;
+import com.softmotions.cayenne.spring.server.routing.ReplicaRoutingDataSource;
 import com.softmotions.cayenne.utils.ExtBaseContext;
+import com.softmotions.cayenne.utils.ObjectContextHolder;
 
 /**
  * @author Adamansky Anton (adamansky@softmotions.com)
@@ -41,6 +47,24 @@ public class CayenneTransactionManager
 
     private DataSource dataSource;
 
+    private boolean trustPool;
+
+    private boolean poolAutoCommit = true;
+
+    private ObjectContextPool contextPool;
+
+    private ObjectContextHolder contextHolder;
+
+    private CayenneTransactionListener[] listeners = new CayenneTransactionListener[0];
+
+    private final CayenneTransactionStatistics statistics = new CayenneTransactionStatistics();
+
+    /**
+     * Connection state tracked in trust pool mode, keyed by physical connection.
+     */
+    private final Map<Connection, ConnectionState> connectionStates =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
     public DataSource getDataSource() {
         return dataSource;
     }
@@ -53,6 +77,72 @@ public class CayenneTransactionManager
         }
     }
 
+    public boolean isTrustPool() {
+        return trustPool;
+    }
+
+    /**
+     * If true connection state (auto-commit, read-only, isolation level)
+     * configured by the pool is trusted and tracked per physical connection
+     * across transactions. Connection settings are changed only if they differ
+     * from the tracked ones, so connections must not be reconfigured outside
+     * of this transaction manager.
+     * <p>
+     * Physical connection is obtained by {@code unwrap(Connection.class)}. Pools returning
+     * the proxy itself from it (e.g. commons-dbcp2) get a new tracked state per checkout,
+     * settings are then applied as without this option and no calls are saved.
+     */
+    public void setTrustPool(boolean trustPool) {
+        this.trustPool = trustPool;
+    }
+
+    public boolean isPoolAutoCommit() {
+        return poolAutoCommit;
+    }
+
+    /**
+     * Auto-commit mode of pooled connections, used in trust pool mode.
+     */
+    public void setPoolAutoCommit(boolean poolAutoCommit) {
+        this.poolAutoCommit = poolAutoCommit;
+    }
+
+    public ObjectContextPool getContextPool() {
+        return contextPool;
+    }
+
+    /**
+     * Optional pool of object contexts. Transactions started without current context
+     * take their contexts from the pool. Contexts stay bound after transaction completion
+     * and are released at the end of servlet request or explicitly by
+     * {@link ObjectContextPool#release(ObjectContext)}.
+     */
+    public void setContextPool(ObjectContextPool contextPool) {
+        this.contextPool = contextPool;
+    }
+
+    /**
+     * Holder of the current object context, {@link ExtBaseContext} holder if not set.
+     */
+    public ObjectContextHolder getContextHolder() {
+        return (contextHolder != null) ? contextHolder : ExtBaseContext.getObjectContextHolder();
+    }
+
+    public void setContextHolder(ObjectContextHolder contextHolder) {
+        this.contextHolder = contextHolder;
+    }
+
+    /**
+     * Listeners notified about physical transactions start and completion.
+     */
+    public void setTransactionListeners(List<CayenneTransactionListener> listeners) {
+        this.listeners = listeners.toArray(new CayenneTransactionListener[0]);
+    }
+
+    public CayenneTransactionStatistics getStatistics() {
+        return statistics;
+    }
+
     public CayenneTransactionManager(CayenneRuntime cayenneRuntime,
                                      DataSource dataSource) {
         this.cayenneRuntime = cayenneRuntime;
@@ -66,7 +156,7 @@ public class CayenneTransactionManager
         if (log.isDebugEnabled()) {
             log.debug("doGetTransaction");
         }
-        CayenneTransactionObject txObject = new CayenneTransactionObject();
+        CayenneTransactionObject txObject = new CayenneTransactionObject(cayenneRuntime, getContextHolder());
         txObject.setSavepointAllowed(isNestedTransactionAllowed());
         ConnectionHolder conHolder = (ConnectionHolder) TransactionSynchronizationManager.getResource(this.getDataSource());
         txObject.setConnectionHolder(conHolder, false);
@@ -84,42 +174,52 @@ public class CayenneTransactionManager
             if (txObject.getConnectionHolder() == null ||
                 txObject.getConnectionHolder().isSynchronizedWithTransaction()) {
                 //noinspection JDBCResourceOpenedButNotSafelyClosed
-                Connection newCon = this.getDataSource().getConnection();
+                Connection newCon = obtainConnection(definition);
                 if (logger.isDebugEnabled()) {
                     logger.debug("Acquired Connection [" + newCon + "] for JDBC transaction");
                 }
                 ObjectContext context;
                 if (definition.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW) {
                     // create child context
-                    ObjectContext parent = ExtBaseContext.getThreadObjectContextNull();
-                    DataChannel channel = (parent != null) ? parent.getChannel() : cayenneRuntime.getChannel();
-                    context = cayenneRuntime.newContext(channel);
+                    ObjectContext parent = getContextHolder().get();
+                    if (parent == null && contextPool != null) {
+                        context = contextPool.acquire();
+                    } else {
+                        DataChannel channel = (parent != null) ? parent.getChannel() : cayenneRuntime.getChannel();
+                        context = cayenneRuntime.newContext(channel);
+                    }
                 } else {
-                    context = ExtBaseContext.getThreadObjectContextNull();
+                    context = getContextHolder().get();
                     if (context == null) {
-                        context = cayenneRuntime.newContext();
+                        context = (contextPool != null) ? contextPool.acquire() : cayenneRuntime.newContext();
                     }
                 }
-                txObject.setConnectionHolder(new CayenneConnectionHolder(newCon, context), true);
+                CayenneConnectionHolder holder = new CayenneConnectionHolder(newCon, context);
+                txObject.setConnectionHolder(holder, true);
             }
 
             // set the current context
-            ExtBaseContext.bindThreadObjectContext(txObject.getConnectionHolderEx().getObjectContext());
+            getContextHolder().set(txObject.getConnectionHolderEx().getObjectContext());
             txObject.getConnectionHolder().setSynchronizedWithTransaction(true);
+            txObject.setReadOnly(definition.isReadOnly());
             con = txObject.getConnectionHolder().getConnection();
 
-            Integer previousIsolationLevel = DataSourceUtils.prepareConnectionForTransaction(con, definition);
-            txObject.setPreviousIsolationLevel(previousIsolationLevel);
-
-            // Switch to manual commit if necessary. This is very expensive in some JDBC drivers,
-            // so we don't want to do it unnecessarily (for example if we've explicitly
-            // configured the connection pool to set it already).
-            if (con.getAutoCommit()) {
-                txObject.setMustRestoreAutoCommit(true);
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Switching JDBC Connection [" + con + "] to manual commit");
+            if (trustPool) {
+                prepareTrustedConnection(txObject, con, definition);
+            } else {
+                Integer previousIsolationLevel = DataSourceUtils.prepareConnectionForTransaction(con, definition);
+                txObject.setPreviousIsolationLevel(previousIsolationLevel);
+
+                // Switch to manual commit if necessary. This is very expensive in some JDBC drivers,
+                // so we don't want to do it unnecessarily (for example if we've explicitly
+                // configured the connection pool to set it already).
+                if (con.getAutoCommit()) {
+                    txObject.setMustRestoreAutoCommit(true);
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Switching JDBC Connection [" + con + "] to manual commit");
+                    }
+                    con.setAutoCommit(false);
                 }
-                con.setAutoCommit(false);
             }
             txObject.getConnectionHolderEx().setTransactionActive(true);
 
@@ -138,6 +238,100 @@ public class CayenneTransactionManager
             }
             throw new CannotCreateTransactionException("Could not open JDBC Connection for transaction", tr);
         }
+        if (listeners.length > 0) {
+            txObject.definition = definition;
+            txObject.startNanos = System.nanoTime();
+            fireTransactionStarted(txObject);
+        }
+    }
+
+    private Connection obtainConnection(TransactionDefinition definition) throws SQLException {
+        DataSource ds = getDataSource();
+        if (ds instanceof ReplicaRoutingDataSource) {
+            // read only flag is not yet exposed by transaction synchronization
+            return ((ReplicaRoutingDataSource) ds).getConnection(definition.isReadOnly());
+        }
+        return ds.getConnection();
+    }
+
+    /**
+     * State tracked for the physical connection behind the given pooled connection.
+     * If the pool does not expose physical connection by unwrap, state is keyed
+     * by the pooled proxy and starts from pool defaults.
+     */
+    private ConnectionState trackedState(Connection con) {
+        Connection physical;
+        try {
+            physical = con.unwrap(Connection.class);
+        } catch (SQLException e) {
+            physical = con;
+        }
+        return connectionStates.computeIfAbsent(physical, c -> new ConnectionState(poolAutoCommit));
+    }
+
+    /**
+     * Prepares connection using the state tracked for physical connection
+     * instead of querying connection.
+     */
+    private void prepareTrustedConnection(CayenneTransactionObject txObject,
+                                          Connection con,
+                                          TransactionDefinition definition) throws SQLException {
+        ConnectionState state = trackedState(con);
+        txObject.getConnectionHolderEx().connectionState = state;
+        if (definition.isReadOnly() != state.readOnly) {
+            con.setReadOnly(definition.isReadOnly());
+            state.readOnly = definition.isReadOnly();
+            txObject.setMustRestoreReadOnly(state.readOnly);
+        } else if (definition.isReadOnly()) {
+            statistics.readOnlySkipped.increment();
+        }
+        int isolation = definition.getIsolationLevel();
+        if (isolation != TransactionDefinition.ISOLATION_DEFAULT
+            && (state.isolation == null || state.isolation != isolation)) {
+            Integer previous = (state.isolation != null) ? state.isolation : con.getTransactionIsolation();
+            if (previous != isolation) {
+                con.setTransactionIsolation(isolation);
+                txObject.setPreviousIsolationLevel(previous);
+            }
+            state.isolation = isolation;
+        } else if (isolation != TransactionDefinition.ISOLATION_DEFAULT) {
+            statistics.isolationSkipped.increment();
+        }
+        if (state.autoCommit) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Switching JDBC Connection [" + con + "] to manual commit");
+            }
+            con.setAutoCommit(false);
+            state.autoCommit = false;
+            txObject.setMustRestoreAutoCommit(true);
+        } else {
+            statistics.autoCommitSkipped.increment();
+        }
+    }
+
+    /**
+     * Restores connection state changed by {@link #prepareTrustedConnection}.
+     * Skipped calls are counted only when preparing, restoring does nothing
+     * beyond what was changed.
+     */
+    private void resetTrustedConnection(CayenneTransactionObject txObject, Connection con) throws SQLException {
+        ConnectionState state = txObject.getConnectionHolderEx().connectionState;
+        if (state == null) {
+            state = trackedState(con);
+        }
+        if (txObject.isMustRestoreAutoCommit()) {
+            con.setAutoCommit(true);
+            state.autoCommit = true;
+        }
+        if (txObject.isMustRestoreReadOnly()) {
+            con.setReadOnly(false);
+            state.readOnly = false;
+        }
+        Integer previous = txObject.getPreviousIsolationLevel();
+        if (previous != null) {
+            con.setTransactionIsolation(previous);
+            state.isolation = previous;
+        }
     }
 
     @Override
@@ -162,7 +356,7 @@ public class CayenneTransactionManager
         }
         CayenneConnectionHolder conHolder = (CayenneConnectionHolder) suspendedResources;
         TransactionSynchronizationManager.bindResource(getDataSource(), conHolder);
-        BaseContext.bindThreadObjectContext(conHolder.getObjectContext());
+        getContextHolder().set(conHolder.getObjectContext());
     }
 
     @Override
@@ -178,6 +372,7 @@ public class CayenneTransactionManager
         try {
             status.flush();
             con.commit();
+            txObject.committed = true;
         } catch (CayenneRuntimeException | SQLException ex) {
             throw new TransactionSystemException("Could not commit JDBC transaction", ex);
         }
@@ -195,7 +390,7 @@ public class CayenneTransactionManager
             logger.debug("Rolling back JDBC transaction on Connection [" + con + "]");
         }
         try {
-            if (dataContext != null) {
+            if (dataContext != null && (!txObject.isReadOnly() || dataContext.hasChanges())) {
                 dataContext.rollbackChanges();
             }
             con.rollback();
@@ -220,6 +415,9 @@ public class CayenneTransactionManager
     @Override
     protected void doCleanupAfterCompletion(Object transaction) {
         CayenneTransactionObject txObject = (CayenneTransactionObject) transaction;
+        if (txObject.definition != null) {
+            fireTransactionCompleted(txObject);
+        }
         // Remove the connection holder from the thread, if exposed.
         if (txObject.isNewConnectionHolder()) {
             TransactionSynchronizationManager.unbindResource(this.dataSource);
@@ -227,10 +425,14 @@ public class CayenneTransactionManager
         // Reset connection.
         Connection con = txObject.getConnectionHolder().getConnection();
         try {
-            if (txObject.isMustRestoreAutoCommit()) {
-                con.setAutoCommit(true);
+            if (trustPool) {
+                resetTrustedConnection(txObject, con);
+            } else {
+                if (txObject.isMustRestoreAutoCommit()) {
+                    con.setAutoCommit(true);
+                }
+                DataSourceUtils.resetConnectionAfterTransaction(con, txObject.getPreviousIsolationLevel());
             }
-            DataSourceUtils.resetConnectionAfterTransaction(con, txObject.getPreviousIsolationLevel());
         } catch (Throwable ex) {
             logger.debug("Could not reset JDBC Connection after transaction", ex);
         }
@@ -241,9 +443,31 @@ public class CayenneTransactionManager
             }
             DataSourceUtils.releaseConnection(con, this.dataSource);
         }
-        txObject.getConnectionHolder().clear();
+        txObject.getConnectionHolderEx().clear();
     }
 
+    private void fireTransactionStarted(CayenneTransactionObject txObject) {
+        ObjectContext context = txObject.getConnectionHolderEx().getObjectContext();
+        for (CayenneTransactionListener l : listeners) {
+            try {
+                l.transactionStarted(txObject.definition, context);
+            } catch (Throwable tr) {
+                log.error("Transaction listener failed", tr);
+            }
+        }
+    }
+
+    private void fireTransactionCompleted(CayenneTransactionObject txObject) {
+        long duration = System.nanoTime() - txObject.startNanos;
+        ObjectContext context = txObject.getConnectionHolderEx().getObjectContext();
+        for (CayenneTransactionListener l : listeners) {
+            try {
+                l.transactionCompleted(txObject.definition, context, txObject.committed, duration);
+            } catch (Throwable tr) {
+                log.error("Transaction listener failed", tr);
+            }
+        }
+    }
 
     @Override
     public void afterPropertiesSet() {
@@ -258,10 +482,32 @@ public class CayenneTransactionManager
      */
     private static class CayenneTransactionObject extends JdbcTransactionObjectSupport {
 
+        private final CayenneRuntime cayenneRuntime;
+
         private boolean newConnectionHolder;
 
         private boolean mustRestoreAutoCommit;
 
+        private boolean mustRestoreReadOnly;
+
+        private boolean readOnly;
+
+        /**
+         * Transaction definition, set only if transaction listeners are registered.
+         */
+        private TransactionDefinition definition;
+
+        private long startNanos;
+
+        private boolean committed;
+
+        private final ObjectContextHolder contextHolder;
+
+        private CayenneTransactionObject(CayenneRuntime cayenneRuntime, ObjectContextHolder contextHolder) {
+            this.cayenneRuntime = cayenneRuntime;
+            this.contextHolder = contextHolder;
+        }
+
         public void setConnectionHolder(ConnectionHolder connectionHolder,
                                         boolean newConnectionHolder) {
             super.setConnectionHolder(connectionHolder);
@@ -280,6 +526,14 @@ public class CayenneTransactionManager
             return this.mustRestoreAutoCommit;
         }
 
+        public void setMustRestoreReadOnly(boolean mustRestoreReadOnly) {
+            this.mustRestoreReadOnly = mustRestoreReadOnly;
+        }
+
+        public boolean isMustRestoreReadOnly() {
+            return this.mustRestoreReadOnly;
+        }
+
         public void setRollbackOnly() {
             getConnectionHolder().setRollbackOnly();
         }
@@ -289,10 +543,30 @@ public class CayenneTransactionManager
             return getConnectionHolder().isRollbackOnly();
         }
 
+        public void setReadOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+        }
+
+        public boolean isReadOnly() {
+            return this.readOnly;
+        }
+
+        /**
+         * Commits object context changes.
+         * Read-only transactions never flush object context,
+         * pending changes are left in context untouched.
+         */
         @Override
         public void flush() {
             CayenneConnectionHolder connectionHolder = getConnectionHolderEx();
-            connectionHolder.getObjectContext().commitChanges();
+            ObjectContext context = connectionHolder.getObjectContext();
+            if (readOnly) {
+                if (log.isDebugEnabled() && context.hasChanges()) {
+                    log.debug("Object context changes are not flushed in read-only transaction");
+                }
+            } else {
+                context.commitChanges();
+            }
             if (TransactionSynchronizationManager.isSynchronizationActive()) {
                 TransactionSynchronizationUtils.triggerFlush();
             }
@@ -301,12 +575,110 @@ public class CayenneTransactionManager
         public CayenneConnectionHolder getConnectionHolderEx() {
             return (CayenneConnectionHolder) getConnectionHolder();
         }
+
+        /**
+         * Creates JDBC savepoint and binds child object context
+         * of the current thread context for the nested transaction scope.
+         */
+        @Override
+        public Object createSavepoint() throws TransactionException {
+            Object savepoint = super.createSavepoint();
+            ObjectContext parent = contextHolder.get();
+            if (parent == null) {
+                parent = getConnectionHolderEx().getObjectContext();
+            }
+            if (!(parent instanceof DataChannel)) {
+                return savepoint;
+            }
+            ObjectContext child = cayenneRuntime.newContext((DataChannel) parent);
+            contextHolder.set(child);
+            return new CayenneSavepoint(savepoint, parent, child);
+        }
+
+        /**
+         * Discards changes of nested transaction child context
+         * and rolls back to JDBC savepoint.
+         */
+        @Override
+        public void rollbackToSavepoint(Object savepoint) throws TransactionException {
+            if (!(savepoint instanceof CayenneSavepoint)) {
+                super.rollbackToSavepoint(savepoint);
+                return;
+            }
+            CayenneSavepoint sp = (CayenneSavepoint) savepoint;
+            try {
+                sp.child.rollbackChanges();
+                super.rollbackToSavepoint(sp.savepoint);
+            } finally {
+                contextHolder.set(sp.parent);
+            }
+        }
+
+        /**
+         * Propagates changes of nested transaction child context
+         * into the parent context and releases JDBC savepoint.
+         */
+        @Override
+        public void releaseSavepoint(Object savepoint) throws TransactionException {
+            if (!(savepoint instanceof CayenneSavepoint)) {
+                super.releaseSavepoint(savepoint);
+                return;
+            }
+            CayenneSavepoint sp = (CayenneSavepoint) savepoint;
+            try {
+                if (sp.child.hasChanges()) {
+                    sp.child.commitChangesToParent();
+                }
+                super.releaseSavepoint(sp.savepoint);
+            } finally {
+                contextHolder.set(sp.parent);
+            }
+        }
+    }
+
+    /**
+     * Nested transaction savepoint: JDBC savepoint plus child object context.
+     */
+    private static class CayenneSavepoint {
+
+        final Object savepoint;
+
+        final ObjectContext parent;
+
+        final ObjectContext child;
+
+        private CayenneSavepoint(Object savepoint, ObjectContext parent, ObjectContext child) {
+            this.savepoint = savepoint;
+            this.parent = parent;
+            this.child = child;
+        }
+    }
+
+    /**
+     * Connection state tracked in trust pool mode.
+     */
+    private static final class ConnectionState {
+
+        boolean autoCommit;
+
+        boolean readOnly;
+
+        Integer isolation;
+
+        private ConnectionState(boolean autoCommit) {
+            this.autoCommit = autoCommit;
+        }
     }
 
     private static class CayenneConnectionHolder extends ConnectionHolder {
 
         final ObjectContext objectContext;
 
+        /**
+         * State of physical connection tracked in trust pool mode.
+         */
+        ConnectionState connectionState;
+
         private CayenneConnectionHolder(Connection connection, ObjectContext objectContext) {
             super(connection);
             this.objectContext = objectContext;
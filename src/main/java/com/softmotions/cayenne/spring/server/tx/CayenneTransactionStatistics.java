@@ -0,0 +1,55 @@
+package com.softmotions.cayenne.spring.server.tx;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of JDBC connection calls skipped by {@link CayenneTransactionManager}
+ * when running in trust pool mode.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class CayenneTransactionStatistics {
+
+    final LongAdder autoCommitSkipped = new LongAdder();
+
+    final LongAdder readOnlySkipped = new LongAdder();
+
+    final LongAdder isolationSkipped = new LongAdder();
+
+    /**
+     * Number of skipped auto-commit queries and switches.
+     */
+    public long getAutoCommitSkipped() {
+        return autoCommitSkipped.sum();
+    }
+
+    /**
+     * Number of skipped read-only queries and switches.
+     */
+    public long getReadOnlySkipped() {
+        return readOnlySkipped.sum();
+    }
+
+    /**
+     * Number of skipped isolation level switches.
+     */
+    public long getIsolationSkipped() {
+        return isolationSkipped.sum();
+    }
+
+    /**
+     * Total number of skipped connection calls.
+     */
+    public long getSkipped() {
+        return getAutoCommitSkipped() + getReadOnlySkipped() + getIsolationSkipped();
+    }
+
+    @Override
+    public String toString() {
+        return "CayenneTransactionStatistics{" +
+               "autoCommitSkipped=" + getAutoCommitSkipped() +
+               ", readOnlySkipped=" + getReadOnlySkipped() +
+               ", isolationSkipped=" + getIsolationSkipped() +
+               '}';
+    }
+}
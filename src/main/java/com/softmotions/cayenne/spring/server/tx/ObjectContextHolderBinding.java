@@ -0,0 +1,42 @@
+package com.softmotions.cayenne.spring.server.tx;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.softmotions.cayenne.utils.ExtBaseContext;
+import com.softmotions.cayenne.utils.ObjectContextHolder;
+
+/**
+ * Installs application {@link ObjectContextHolder} into {@link ExtBaseContext}
+ * while the application context is running, previous holder is restored on close.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class ObjectContextHolderBinding implements InitializingBean, DisposableBean {
+
+    private final ObjectContextHolder holder;
+
+    private ObjectContextHolder previous;
+
+    public ObjectContextHolderBinding(ObjectContextHolder holder) {
+        this.holder = holder;
+    }
+
+    public ObjectContextHolder getHolder() {
+        return holder;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        previous = ExtBaseContext.getObjectContextHolder();
+        ExtBaseContext.setObjectContextHolder(holder);
+    }
+
+    @Override
+    public void destroy() {
+        if (previous != null && ExtBaseContext.getObjectContextHolder() == holder) {
+            ExtBaseContext.setObjectContextHolder(previous);
+        }
+        previous = null;
+    }
+}
@@ -0,0 +1,51 @@
+package com.softmotions.cayenne.spring.server.tx;
+
+import javax.sql.DataSource;
+
+import org.apache.cayenne.di.Inject;
+import org.apache.cayenne.log.JdbcEventLogger;
+import org.apache.cayenne.tx.CayenneTransaction;
+import org.apache.cayenne.tx.ExternalTransaction;
+import org.apache.cayenne.tx.Transaction;
+import org.apache.cayenne.tx.TransactionFactory;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Cayenne transaction factory aware of Spring managed transactions.
+ * <p>
+ * If an actual Spring transaction is active and a connection is bound for the data source
+ * by any Spring transaction manager, Cayenne transactions are external: they never commit
+ * or roll back JDBC connections leaving it to the transaction manager.
+ * Connections are obtained from transaction aware data source
+ * so Cayenne reuses the connection bound to the Spring transaction.
+ * Otherwise Cayenne manages its own transactions.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public class SpringTransactionFactory implements TransactionFactory {
+
+    /**
+     * Cayenne DI key of the data source Spring transactions are bound to.
+     */
+    public static final String DATA_SOURCE_KEY = "spring.cayenne.tx.dataSource";
+
+    private final JdbcEventLogger jdbcEventLogger;
+
+    private final DataSource dataSource;
+
+    public SpringTransactionFactory(@Inject JdbcEventLogger jdbcEventLogger,
+                                    @Inject(DATA_SOURCE_KEY) DataSource dataSource) {
+        this.jdbcEventLogger = jdbcEventLogger;
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public Transaction createTransaction() {
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+            && TransactionSynchronizationManager.getResource(dataSource) instanceof ConnectionHolder) {
+            return new ExternalTransaction(jdbcEventLogger);
+        }
+        return new CayenneTransaction(jdbcEventLogger);
+    }
+}
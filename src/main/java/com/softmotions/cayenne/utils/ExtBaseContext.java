@@ -7,6 +7,23 @@ import org.apache.cayenne.ObjectContext;
  * @author Adamansky Anton (adamansky@softmotions.com)
  */
 public abstract class ExtBaseContext extends BaseContext {
+
+    private static volatile ObjectContextHolder holder = ObjectContextHolder.threadLocal();
+
+    public static ObjectContextHolder getObjectContextHolder() {
+        return holder;
+    }
+
+    /**
+     * Sets strategy of binding current object context.
+     */
+    public static void setObjectContextHolder(ObjectContextHolder holder) {
+        if (holder == null) {
+            throw new IllegalArgumentException("holder");
+        }
+        ExtBaseContext.holder = holder;
+    }
+
     /**
      * Method used to get
      *
@@ -14,6 +31,17 @@ public abstract class ExtBaseContext extends BaseContext {
      * @throws IllegalStateException
      */
     public static ObjectContext getThreadObjectContextNull() throws IllegalStateException {
+        return holder.get();
+    }
+
+    /**
+     * Binds current object context using configured {@link ObjectContextHolder}.
+     */
+    public static void bindObjectContext(ObjectContext octx) {
+        holder.set(octx);
+    }
+
+    static ObjectContext getBaseThreadObjectContext() {
         return threadObjectContext.get();
     }
 }
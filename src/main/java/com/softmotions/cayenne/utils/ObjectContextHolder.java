@@ -0,0 +1,44 @@
+package com.softmotions.cayenne.utils;
+
+import org.apache.cayenne.ObjectContext;
+
+/**
+ * Strategy of binding current {@link ObjectContext}
+ * used by {@link ExtBaseContext}.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public interface ObjectContextHolder {
+
+    /**
+     * Current object context or {@code null}.
+     */
+    ObjectContext get();
+
+    /**
+     * Binds current object context, {@code null} unbinds it.
+     */
+    void set(ObjectContext octx);
+
+    /**
+     * Cayenne {@link org.apache.cayenne.BaseContext} thread local binding.
+     */
+    static ObjectContextHolder threadLocal() {
+        return ThreadLocalObjectContextHolder.INSTANCE;
+    }
+
+    /**
+     * Binding kept in explicit {@link ObjectContextScope} objects
+     * which can be captured and entered on other threads.
+     */
+    static ObjectContextHolder scoped() {
+        return ObjectContextScope.HOLDER;
+    }
+
+    /**
+     * Binding independent of other holders, for additional Cayenne runtimes.
+     */
+    static ObjectContextHolder separate() {
+        return new SeparateObjectContextHolder();
+    }
+}
@@ -0,0 +1,107 @@
+package com.softmotions.cayenne.utils;
+
+import java.util.concurrent.Callable;
+
+import org.apache.cayenne.BaseContext;
+import org.apache.cayenne.ObjectContext;
+
+/**
+ * Explicit object context scope.
+ * <p>
+ * Scope keeps the bound object context independently of the thread.
+ * Tasks moved to other threads (executors, virtual threads) capture
+ * the current scope by {@link #current()} when they are submitted and enter it by
+ * {@link #run(Runnable)} or {@link #call(Callable)}. Contexts are never
+ * propagated to other threads implicitly, pooled threads would keep them otherwise.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public final class ObjectContextScope {
+
+    private static final ThreadLocal<ObjectContextScope> current = new ThreadLocal<>();
+
+    static final ObjectContextHolder HOLDER = new ObjectContextHolder() {
+
+        @Override
+        public ObjectContext get() {
+            ObjectContextScope scope = current.get();
+            return (scope != null) ? scope.context : null;
+        }
+
+        @Override
+        public void set(ObjectContext octx) {
+            ObjectContextScope scope = current.get();
+            if (octx == null) {
+                // unbinding leaves no thread local entry on pooled threads
+                if (scope != null) {
+                    scope.context = null;
+                    current.remove();
+                }
+                BaseContext.bindThreadObjectContext(null);
+                return;
+            }
+            if (scope == null) {
+                scope = new ObjectContextScope();
+                current.set(scope);
+            }
+            scope.context = octx;
+            BaseContext.bindThreadObjectContext(octx);
+        }
+    };
+
+    private volatile ObjectContext context;
+
+    public ObjectContextScope() {
+    }
+
+    public ObjectContextScope(ObjectContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Scope entered by the current thread, new empty scope if absent.
+     * The new scope is not entered.
+     */
+    public static ObjectContextScope current() {
+        ObjectContextScope scope = current.get();
+        return (scope != null) ? scope : new ObjectContextScope();
+    }
+
+    public ObjectContext getContext() {
+        return context;
+    }
+
+    public void run(Runnable task) {
+        try {
+            call(() -> {
+                task.run();
+                return null;
+            });
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Executes task in this scope on the current thread,
+     * previous scope of the thread is restored afterwards.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        ObjectContextScope prev = current.get();
+        current.set(this);
+        BaseContext.bindThreadObjectContext(context);
+        try {
+            return task.call();
+        } finally {
+            if (prev != null) {
+                current.set(prev);
+                BaseContext.bindThreadObjectContext(prev.context);
+            } else {
+                current.remove();
+                BaseContext.bindThreadObjectContext(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.softmotions.cayenne.utils;
+
+import org.apache.cayenne.query.ObjectSelect;
+
+/**
+ * {@link ObjectSelect} helpers.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+public final class ObjectSelects {
+
+    private ObjectSelects() {
+    }
+
+    /**
+     * True if the query is an object select or its copy,
+     * not a column select or other subclass.
+     */
+    public static boolean isPlain(ObjectSelect<?> query) {
+        return query.getClass() == ObjectSelect.class || query.getClass() == CopiedObjectSelect.class;
+    }
+
+    /**
+     * Copy of the plain object select, so the caller's query
+     * is never modified. Column selects are not supported.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static <T> ObjectSelect<T> copyOf(ObjectSelect<T> query) {
+        if (!isPlain(query)) {
+            throw new IllegalArgumentException("Unsupported query type: " + query.getClass().getName());
+        }
+        ObjectSelect copy = new CopiedObjectSelect();
+        if (query.getEntityType() != null) {
+            copy.entityType(query.getEntityType());
+        }
+        if (query.getEntityName() != null) {
+            copy.entityName(query.getEntityName());
+        }
+        if (query.getDbEntityName() != null) {
+            copy.dbEntityName(query.getDbEntityName());
+        }
+        copy.where(query.getWhere());
+        if (query.getOrderings() != null) {
+            copy.orderBy(query.getOrderings());
+        }
+        if (query.getPrefetches() != null) {
+            // merged nodes are cloned, prefetch tree of the source query stays intact
+            copy.prefetch(query.getPrefetches());
+        }
+        copy.limit(query.getLimit());
+        copy.offset(query.getOffset());
+        copy.pageSize(query.getPageSize());
+        copy.statementFetchSize(query.getStatementFetchSize());
+        if (query.getCacheStrategy() != null) {
+            copy.cacheStrategy(query.getCacheStrategy(), query.getCacheGroup());
+        }
+        if (query.isFetchingDataRows()) {
+            copy.fetchDataRows();
+        }
+        return copy;
+    }
+
+    /**
+     * Copy of the plain object select having the given statement fetch size
+     * unless the query sets its own. Other queries are returned as is.
+     */
+    public static <T> ObjectSelect<T> withFetchSize(ObjectSelect<T> query, int fetchSize) {
+        if (fetchSize <= 0 || query.getStatementFetchSize() != 0 || !isPlain(query)) {
+            return query;
+        }
+        return copyOf(query).statementFetchSize(fetchSize);
+    }
+
+    private static final class CopiedObjectSelect<T> extends ObjectSelect<T> {
+    }
+}
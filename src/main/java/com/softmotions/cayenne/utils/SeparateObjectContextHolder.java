@@ -0,0 +1,42 @@
+package com.softmotions.cayenne.utils;
+
+import org.apache.cayenne.BaseContext;
+import org.apache.cayenne.ObjectContext;
+
+/**
+ * Holder backed by its own {@link ThreadLocal}, used when several
+ * Cayenne runtimes bind contexts on the same thread.
+ * Bound context is also bound to Cayenne {@link BaseContext} thread local,
+ * the replaced binding is restored on unbind.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+final class SeparateObjectContextHolder implements ObjectContextHolder {
+
+    private final ThreadLocal<ObjectContext> context = new ThreadLocal<>();
+
+    private final ThreadLocal<ObjectContext> replaced = new ThreadLocal<>();
+
+    @Override
+    public ObjectContext get() {
+        return context.get();
+    }
+
+    @Override
+    public void set(ObjectContext octx) {
+        ObjectContext current = context.get();
+        if (octx == null) {
+            if (current != null) {
+                context.remove();
+                BaseContext.bindThreadObjectContext(replaced.get());
+                replaced.remove();
+            }
+            return;
+        }
+        if (current == null) {
+            replaced.set(ExtBaseContext.getBaseThreadObjectContext());
+        }
+        context.set(octx);
+        BaseContext.bindThreadObjectContext(octx);
+    }
+}
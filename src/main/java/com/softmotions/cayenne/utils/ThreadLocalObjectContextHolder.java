@@ -0,0 +1,27 @@
+package com.softmotions.cayenne.utils;
+
+import org.apache.cayenne.BaseContext;
+import org.apache.cayenne.ObjectContext;
+
+/**
+ * Default holder backed by Cayenne {@link BaseContext} thread local.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+final class ThreadLocalObjectContextHolder implements ObjectContextHolder {
+
+    static final ThreadLocalObjectContextHolder INSTANCE = new ThreadLocalObjectContextHolder();
+
+    private ThreadLocalObjectContextHolder() {
+    }
+
+    @Override
+    public ObjectContext get() {
+        return ExtBaseContext.getBaseThreadObjectContext();
+    }
+
+    @Override
+    public void set(ObjectContext octx) {
+        BaseContext.bindThreadObjectContext(octx);
+    }
+}
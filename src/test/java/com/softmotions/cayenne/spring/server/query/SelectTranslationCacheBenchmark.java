@@ -0,0 +1,130 @@
+package com.softmotions.cayenne.spring.server.query;
+
+import java.sql.Types;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cayenne.CayenneDataObject;
+import org.apache.cayenne.access.translator.select.DefaultSelectTranslatorFactory;
+import org.apache.cayenne.access.translator.select.SelectTranslatorFactory;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+import org.apache.cayenne.dba.DbAdapter;
+import org.apache.cayenne.dba.postgres.PostgresAdapter;
+import org.apache.cayenne.di.AdhocObjectFactory;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.map.DataMap;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.EntityResolver;
+import org.apache.cayenne.map.ObjAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Translation cost of a select query by Cayenne translator
+ * and by {@link SelectTranslationCache} having the query shape cached.
+ * Started by {@link #main(String[])} on the test classpath.
+ *
+ * @author Adamansky Anton (adamansky@softmotions.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectTranslationCacheBenchmark {
+
+    private ServerRuntime runtime;
+
+    private DbAdapter adapter;
+
+    private EntityResolver resolver;
+
+    private SelectTranslatorFactory translator;
+
+    private SelectTranslationCache cache;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        runtime = ServerRuntime.builder().build();
+        adapter = runtime.getInjector()
+                         .getInstance(AdhocObjectFactory.class)
+                         .newInstance(DbAdapter.class, PostgresAdapter.class.getName());
+        resolver = new EntityResolver(Collections.singleton(createDataMap()));
+        translator = new DefaultSelectTranslatorFactory();
+        cache = new SelectTranslationCache(100);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        runtime.shutdown();
+    }
+
+    @Benchmark
+    public String translate() throws Exception {
+        return translator.translator(query(), adapter, resolver).getSql();
+    }
+
+    @Benchmark
+    public String translateCached() throws Exception {
+        return cache.translator(query(), adapter, resolver).getSql();
+    }
+
+    private static SelectQuery<CayenneDataObject> query() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        SelectQuery<CayenneDataObject> q = new SelectQuery<>(
+                "Artist",
+                ExpressionFactory.likeExp("name", "A" + rnd.nextInt(100) + "%")
+                                 .andExp(ExpressionFactory.greaterOrEqualExp("rating", rnd.nextInt(10))));
+        q.addOrdering(new Ordering("name", SortOrder.ASCENDING));
+        q.setFetchLimit(20);
+        return q;
+    }
+
+    private static DataMap createDataMap() {
+        DataMap map = new DataMap("benchmark");
+        DbEntity dbe = new DbEntity("ARTIST");
+        DbAttribute id = new DbAttribute("ID", Types.BIGINT, dbe);
+        id.setPrimaryKey(true);
+        id.setMandatory(true);
+        dbe.addAttribute(id);
+        dbe.addAttribute(new DbAttribute("NAME", Types.VARCHAR, dbe));
+        dbe.addAttribute(new DbAttribute("RATING", Types.INTEGER, dbe));
+        map.addDbEntity(dbe);
+
+        ObjEntity oe = new ObjEntity("Artist");
+        oe.setClassName(CayenneDataObject.class.getName());
+        oe.setDbEntityName(dbe.getName());
+        oe.addAttribute(new ObjAttribute("name", String.class.getName(), oe));
+        oe.getAttribute("name").setDbAttributePath("NAME");
+        oe.addAttribute(new ObjAttribute("rating", Integer.class.getName(), oe));
+        oe.getAttribute("rating").setDbAttributePath("RATING");
+        map.addObjEntity(oe);
+        return map;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                           .include(SelectTranslationCacheBenchmark.class.getSimpleName())
+                           .build()).run();
+    }
+}